@@ -0,0 +1,384 @@
+package com.unascribed.forgery;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.objectweb.asm.AnnotationVisitor;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+
+import com.grack.nanojson.JsonArray;
+import com.grack.nanojson.JsonObject;
+import com.grack.nanojson.JsonWriter;
+
+/**
+ * Generates a synthetic but realistically shaped Minecraft environment: Intermediary tiny v2 and
+ * TSRG2 mappings for {@code classes} classes, an Intermediary-named Minecraft jar with a class
+ * hierarchy and overriding methods, and a mixin-heavy Fabric mod against it. Fixtures are written
+ * once under {@code forgery.bench.dir} (default {@code build/forgery-bench}) and reused.
+ */
+public class BenchmarkFixtures {
+
+	public static final String PACKAGE = "com/example/benchmod/runtime";
+
+	private static final int FIELDS = 6;
+	private static final int METHODS = 12;
+	private static final String CALLBACK_INFO = "Lorg/spongepowered/asm/mixin/injection/callback/CallbackInfo;";
+
+	private static final Map<String, BenchmarkFixtures> cache = new HashMap<>();
+
+	public final int classes;
+	public final int modClasses;
+	public final Path dir;
+	public final Path intermediary;
+	public final Path tsrg;
+	public final Path minecraft;
+	public final Path mod;
+	public final Path runtime;
+	public final Path refmapEntries;
+
+	private BenchmarkFixtures(int classes, int modClasses) {
+		this.classes = classes;
+		this.modClasses = modClasses;
+		this.dir = Paths.get(System.getProperty("forgery.bench.dir", "build/forgery-bench")).toAbsolutePath().resolve(classes+"-"+modClasses);
+		this.intermediary = dir.resolve("intermediary.tiny");
+		this.tsrg = dir.resolve("joined.tsrg");
+		this.minecraft = dir.resolve("minecraft-intermediary.jar");
+		this.mod = dir.resolve("benchmod.jar");
+		this.runtime = dir.resolve("runtime.jar");
+		this.refmapEntries = dir.resolve("refmap-entries.txt");
+	}
+
+	public static synchronized BenchmarkFixtures get(int classes, int modClasses) throws IOException {
+		String key = classes+"-"+modClasses;
+		BenchmarkFixtures f = cache.get(key);
+		if (f == null) {
+			f = new BenchmarkFixtures(classes, modClasses);
+			if (!Files.exists(f.dir.resolve("complete"))) {
+				System.out.println("Generating benchmark fixtures in "+f.dir+"...");
+				f.generate();
+			}
+			cache.put(key, f);
+		}
+		return f;
+	}
+
+	public Mappings loadMappings() throws IOException {
+		return Forgery.loadMappings(intermediary.toString(), tsrg.toString(), null, null);
+	}
+
+	/**
+	 * @return every refmap target in the generated mod as {@code key\tmapping} pairs
+	 */
+	public List<String[]> readRefmapEntries() throws IOException {
+		List<String[]> li = new ArrayList<>();
+		for (String line : Files.readAllLines(refmapEntries)) {
+			li.add(line.split("\t"));
+		}
+		return li;
+	}
+
+	private void generate() throws IOException {
+		Files.createDirectories(dir);
+		writeTiny();
+		writeTsrg();
+		writeMinecraft();
+		writeMod();
+		writeRuntime();
+		Files.write(dir.resolve("complete"), new byte[0]);
+	}
+
+	// Naming. Method 0 of every class overrides method 0 of class 0, so the hierarchy matters
+	// for completion the way it does in the real game.
+
+	private static String obf(int i) {
+		StringBuilder sb = new StringBuilder();
+		do {
+			sb.append((char)('a'+(i%26)));
+			i = i/26-1;
+		} while (i >= 0);
+		return sb.reverse().toString();
+	}
+
+	private String obfClass(int i) {
+		return obf(i);
+	}
+
+	private String intClass(int i) {
+		return "net/minecraft/class_"+i;
+	}
+
+	private String srgClass(int i) {
+		return "net/minecraft/src/C_"+i+"_";
+	}
+
+	private int parent(int i) {
+		return i == 0 ? -1 : (i-1)/2;
+	}
+
+	private int fieldId(int i, int j) {
+		return i*FIELDS+j;
+	}
+
+	private int methodId(int i, int k) {
+		return k == 0 ? 0 : i*METHODS+k;
+	}
+
+	private String fieldDesc(int i, int j, Namer n) {
+		return j%3 == 0 ? "I" : "L"+n.name((i+j+1)%classes)+";";
+	}
+
+	private String methodDesc(int i, int k, Namer n) {
+		if (k == 0) return "()V";
+		if (k%2 == 1) return "(L"+n.name((i*7+k)%classes)+";I)V";
+		return "(J)L"+n.name((i*13+k)%classes)+";";
+	}
+
+	private interface Namer {
+		String name(int i);
+	}
+
+	private void writeTiny() throws IOException {
+		try (Writer w = Files.newBufferedWriter(intermediary)) {
+			w.write("tiny\t2\t0\tofficial\tintermediary\n");
+			for (int i = 0; i < classes; i++) {
+				w.write("c\t"+obfClass(i)+"\t"+intClass(i)+"\n");
+				for (int j = 0; j < FIELDS; j++) {
+					w.write("\tf\t"+fieldDesc(i, j, this::obfClass)+"\t"+obf(j)+"\tfield_"+fieldId(i, j)+"\n");
+				}
+				for (int k = 0; k < METHODS; k++) {
+					w.write("\tm\t"+methodDesc(i, k, this::obfClass)+"\t"+obf(k)+"\tmethod_"+methodId(i, k)+"\n");
+				}
+			}
+		}
+	}
+
+	private void writeTsrg() throws IOException {
+		try (Writer w = Files.newBufferedWriter(tsrg)) {
+			w.write("tsrg2 obf srg id\n");
+			for (int i = 0; i < classes; i++) {
+				w.write(obfClass(i)+" "+srgClass(i)+" "+i+"\n");
+				for (int j = 0; j < FIELDS; j++) {
+					w.write("\t"+obf(j)+" f_"+fieldId(i, j)+"_ "+fieldId(i, j)+"\n");
+				}
+				for (int k = 0; k < METHODS; k++) {
+					int id = methodId(i, k);
+					w.write("\t"+obf(k)+" "+methodDesc(i, k, this::obfClass)+" m_"+id+"_ "+id+"\n");
+					if (k != 0) {
+						w.write("\t\t1 o p_"+id+"_1_ "+id+"\n");
+					}
+				}
+			}
+		}
+	}
+
+	private void writeMinecraft() throws IOException {
+		try (ZipOutputStream zos = new ZipOutputStream(Files.newOutputStream(minecraft))) {
+			for (int i = 0; i < classes; i++) {
+				String superName = i == 0 ? "java/lang/Object" : intClass(parent(i));
+				ClassWriter cw = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+				cw.visit(Opcodes.V1_8, Opcodes.ACC_PUBLIC | Opcodes.ACC_SUPER, intClass(i), null, superName, null);
+				for (int j = 0; j < FIELDS; j++) {
+					cw.visitField(Opcodes.ACC_PROTECTED, "field_"+fieldId(i, j), fieldDesc(i, j, this::intClass), null, null).visitEnd();
+				}
+				MethodVisitor ctor = cw.visitMethod(Opcodes.ACC_PUBLIC, "<init>", "()V", null, null);
+				ctor.visitCode();
+				ctor.visitVarInsn(Opcodes.ALOAD, 0);
+				ctor.visitMethodInsn(Opcodes.INVOKESPECIAL, superName, "<init>", "()V", false);
+				ctor.visitInsn(Opcodes.RETURN);
+				ctor.visitMaxs(0, 0);
+				ctor.visitEnd();
+				for (int k = 0; k < METHODS; k++) {
+					String desc = methodDesc(i, k, this::intClass);
+					MethodVisitor mv = cw.visitMethod(Opcodes.ACC_PUBLIC, "method_"+methodId(i, k), desc, null, null);
+					mv.visitCode();
+					if (desc.endsWith("V")) {
+						mv.visitInsn(Opcodes.RETURN);
+					} else {
+						mv.visitInsn(Opcodes.ACONST_NULL);
+						mv.visitInsn(Opcodes.ARETURN);
+					}
+					mv.visitMaxs(0, 0);
+					mv.visitEnd();
+				}
+				cw.visitEnd();
+				putEntry(zos, intClass(i)+".class", cw.toByteArray());
+			}
+		}
+	}
+
+	private void writeMod() throws IOException {
+		String mixinPkg = "com/example/benchmod/mixin";
+		JsonObject refmapMappings = new JsonObject();
+		JsonArray mixinNames = new JsonArray();
+		StringBuilder abs = new StringBuilder();
+		StringBuilder rel = new StringBuilder();
+		StringBuilder aw = new StringBuilder("accessWidener\tv1\tintermediary\n");
+		try (ZipOutputStream zos = new ZipOutputStream(Files.newOutputStream(mod));
+				BufferedWriter entries = Files.newBufferedWriter(refmapEntries)) {
+			ClassWriter main = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+			main.visit(Opcodes.V1_8, Opcodes.ACC_PUBLIC | Opcodes.ACC_SUPER, "com/example/benchmod/BenchMod", null, "java/lang/Object", new String[] { "net/fabricmc/api/ModInitializer" });
+			writeConstructor(main, "java/lang/Object");
+			MethodVisitor init = main.visitMethod(Opcodes.ACC_PUBLIC, "onInitialize", "()V", null, null);
+			init.visitCode();
+			init.visitInsn(Opcodes.RETURN);
+			init.visitMaxs(0, 0);
+			init.visitEnd();
+			main.visitEnd();
+			putEntry(zos, "com/example/benchmod/BenchMod.class", main.toByteArray());
+			for (int n = 0; n < modClasses; n++) {
+				int t = (n*37+11)%classes;
+				String target = intClass(t);
+				String shadowField = "field_"+fieldId(t, 1);
+				String shadowFieldDesc = fieldDesc(t, 1, this::intClass);
+				String shadowMethod = "method_"+methodId(t, 1);
+				String shadowMethodDesc = methodDesc(t, 1, this::intClass);
+				String injectMethod = "method_"+methodId(t, 3);
+				String injectMethodDesc = methodDesc(t, 3, this::intClass);
+				int u = (n*53+5)%classes;
+				String redirectField = "field_"+fieldId(u, 2);
+				String redirectFieldDesc = fieldDesc(u, 2, this::intClass);
+
+				String name = mixinPkg+"/Mixin"+n;
+				mixinNames.add("Mixin"+n);
+				ClassWriter cw = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+				cw.visit(Opcodes.V1_8, Opcodes.ACC_PUBLIC | Opcodes.ACC_ABSTRACT | Opcodes.ACC_SUPER, name, null, "java/lang/Object", null);
+				AnnotationVisitor mixin = cw.visitAnnotation("Lorg/spongepowered/asm/mixin/Mixin;", false);
+				AnnotationVisitor value = mixin.visitArray("value");
+				value.visit(null, Type.getObjectType(target));
+				value.visitEnd();
+				mixin.visitEnd();
+				cw.visitField(Opcodes.ACC_PRIVATE, shadowField, shadowFieldDesc, null, null)
+						.visitAnnotation("Lorg/spongepowered/asm/mixin/Shadow;", false).visitEnd();
+				MethodVisitor shadow = cw.visitMethod(Opcodes.ACC_PUBLIC | Opcodes.ACC_ABSTRACT, shadowMethod, shadowMethodDesc, null, null);
+				shadow.visitAnnotation("Lorg/spongepowered/asm/mixin/Shadow;", false).visitEnd();
+				shadow.visitEnd();
+				MethodVisitor handler = cw.visitMethod(Opcodes.ACC_PRIVATE, "benchmod$onCall"+n, "("+CALLBACK_INFO+")V", null, null);
+				AnnotationVisitor inject = handler.visitAnnotation("Lorg/spongepowered/asm/mixin/injection/Inject;", false);
+				AnnotationVisitor method = inject.visitArray("method");
+				method.visit(null, injectMethod);
+				method.visitEnd();
+				inject.visitEnd();
+				handler.visitCode();
+				handler.visitVarInsn(Opcodes.ALOAD, 0);
+				handler.visitTypeInsn(Opcodes.CHECKCAST, target);
+				handler.visitInsn(Opcodes.ACONST_NULL);
+				handler.visitInsn(Opcodes.ICONST_0);
+				handler.visitMethodInsn(Opcodes.INVOKEVIRTUAL, target, shadowMethod, shadowMethodDesc, false);
+				handler.visitVarInsn(Opcodes.ALOAD, 0);
+				handler.visitTypeInsn(Opcodes.CHECKCAST, target);
+				handler.visitFieldInsn(Opcodes.GETFIELD, target, shadowField, shadowFieldDesc);
+				handler.visitInsn(Opcodes.POP);
+				handler.visitInsn(Opcodes.RETURN);
+				handler.visitMaxs(0, 0);
+				handler.visitEnd();
+				cw.visitEnd();
+				putEntry(zos, name+".class", cw.toByteArray());
+
+				String injectRef = "L"+target+";"+injectMethod+injectMethodDesc;
+				String redirectRef = "L"+intClass(u)+";"+redirectField+":"+redirectFieldDesc;
+				JsonObject mappings = new JsonObject();
+				mappings.put(injectMethod, injectRef);
+				mappings.put(redirectField, redirectRef);
+				refmapMappings.put(name, mappings);
+				entries.write(injectMethod+"\t"+injectRef+"\n");
+				entries.write(redirectField+"\t"+redirectRef+"\n");
+				abs.append(injectMethod).append(' ').append(injectRef).append('\n');
+				rel.append(name).append('\n').append(injectMethod).append(' ').append(injectRef)
+						.append('\t').append(redirectField).append(' ').append(redirectRef).append('\n');
+				aw.append("accessible\tmethod\t").append(target).append('\t').append(shadowMethod).append('\t').append(shadowMethodDesc).append('\n');
+				aw.append("mutable\tfield\t").append(intClass(u)).append('\t').append(redirectField).append('\t').append(redirectFieldDesc).append('\n');
+
+				ClassWriter plain = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+				String plainName = "com/example/benchmod/feature/Feature"+n;
+				plain.visit(Opcodes.V1_8, Opcodes.ACC_PUBLIC | Opcodes.ACC_SUPER, plainName, null, target, null);
+				plain.visitField(Opcodes.ACC_PRIVATE, "other", "L"+intClass(u)+";", null, null).visitEnd();
+				writeConstructor(plain, target);
+				String callDesc = methodDesc(u, 2, this::intClass);
+				MethodVisitor use = plain.visitMethod(Opcodes.ACC_PUBLIC | Opcodes.ACC_STATIC, "use", "(L"+intClass(u)+";)Ljava/lang/Object;", null, null);
+				use.visitCode();
+				use.visitVarInsn(Opcodes.ALOAD, 0);
+				use.visitInsn(Opcodes.LCONST_0);
+				use.visitMethodInsn(Opcodes.INVOKEVIRTUAL, intClass(u), "method_"+methodId(u, 2), callDesc, false);
+				use.visitInsn(Opcodes.ARETURN);
+				use.visitMaxs(0, 0);
+				use.visitEnd();
+				plain.visitEnd();
+				putEntry(zos, plainName+".class", plain.toByteArray());
+			}
+			JsonObject refmap = new JsonObject();
+			refmap.put("mappings", refmapMappings);
+			JsonObject data = new JsonObject();
+			data.put("named:intermediary", refmapMappings.clone());
+			refmap.put("data", data);
+			putEntry(zos, "benchmod-refmap.json", JsonWriter.string(refmap).getBytes(StandardCharsets.UTF_8));
+
+			JsonObject mixinConfig = new JsonObject();
+			mixinConfig.put("required", true);
+			mixinConfig.put("package", mixinPkg.replace('/', '.'));
+			mixinConfig.put("refmap", "benchmod-refmap.json");
+			mixinConfig.put("mixins", mixinNames);
+			putEntry(zos, "benchmod.mixins.json", JsonWriter.string(mixinConfig).getBytes(StandardCharsets.UTF_8));
+
+			JsonObject fabricMod = new JsonObject();
+			fabricMod.put("schemaVersion", 1);
+			fabricMod.put("id", "benchmod");
+			fabricMod.put("version", "1.0.0");
+			fabricMod.put("name", "Benchmark Mod");
+			fabricMod.put("description", "Synthetic mod for Forgery benchmarks");
+			fabricMod.put("license", "MIT");
+			fabricMod.put("authors", new JsonArray(Arrays.asList("Forgery")));
+			fabricMod.put("mixins", new JsonArray(Arrays.asList("benchmod.mixins.json")));
+			fabricMod.put("accessWidener", "benchmod.accesswidener");
+			putEntry(zos, "fabric.mod.json", JsonWriter.string(fabricMod).getBytes(StandardCharsets.UTF_8));
+
+			putEntry(zos, "benchmod.accesswidener", aw.toString().getBytes(StandardCharsets.UTF_8));
+			putEntry(zos, "fabAbsRefMap.txt", abs.toString().getBytes(StandardCharsets.UTF_8));
+			putEntry(zos, "fabRelRefMap.txt", rel.toString().getBytes(StandardCharsets.UTF_8));
+			for (int n = 0; n < modClasses/10; n++) {
+				putEntry(zos, "assets/benchmod/lang/lang"+n+".json", ("{\"benchmod.key"+n+"\": \"Value "+n+"\"}").getBytes(StandardCharsets.UTF_8));
+			}
+		}
+	}
+
+	private void writeRuntime() throws IOException {
+		try (ZipOutputStream zos = new ZipOutputStream(Files.newOutputStream(runtime))) {
+			ClassWriter cw = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+			cw.visit(Opcodes.V1_8, Opcodes.ACC_PUBLIC | Opcodes.ACC_SUPER, PACKAGE+"/ConvertedModInitializer", null, "java/lang/Object", null);
+			writeConstructor(cw, "java/lang/Object");
+			cw.visitEnd();
+			putEntry(zos, PACKAGE+"/ConvertedModInitializer.class", cw.toByteArray());
+		}
+	}
+
+	private static void writeConstructor(ClassWriter cw, String superName) {
+		MethodVisitor mv = cw.visitMethod(Opcodes.ACC_PUBLIC, "<init>", "()V", null, null);
+		mv.visitCode();
+		mv.visitVarInsn(Opcodes.ALOAD, 0);
+		mv.visitMethodInsn(Opcodes.INVOKESPECIAL, superName, "<init>", "()V", false);
+		mv.visitInsn(Opcodes.RETURN);
+		mv.visitMaxs(0, 0);
+		mv.visitEnd();
+	}
+
+	private static void putEntry(ZipOutputStream zos, String name, byte[] data) throws IOException {
+		zos.putNextEntry(new ZipEntry(name));
+		zos.write(data);
+		zos.closeEntry();
+	}
+
+}
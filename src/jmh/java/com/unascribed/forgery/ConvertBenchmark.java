@@ -0,0 +1,109 @@
+package com.unascribed.forgery;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import org.cadixdev.atlas.AtlasWithNewASM;
+import org.cadixdev.bombe.jar.JarManifestEntry;
+import org.cadixdev.bombe.jar.asm.JarEntryRemappingTransformer;
+import org.cadixdev.lorenz.MappingSet;
+import org.cadixdev.lorenz.asm.LorenzRemapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.grack.nanojson.JsonParserException;
+
+/**
+ * Converting the generated mod against already loaded mappings, as batch mode and the daemon do,
+ * along with just the class remapping pass on its own, through Lorenz and through a
+ * {@link MappingTable}. Only the table pass is run on more than one thread.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4G")
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class ConvertBenchmark {
+
+	@Param("10000")
+	public int classes;
+
+	@Param("500")
+	public int modClasses;
+
+	@Param({"1", "4"})
+	public int threads;
+
+	private BenchmarkFixtures fixtures;
+	private Mappings mappings;
+	private MinecraftJar mc;
+	private Path output;
+
+	@Setup
+	public void setup() throws IOException {
+		System.setProperty("forgery.threads", Integer.toString(threads));
+		fixtures = BenchmarkFixtures.get(classes, modClasses);
+		mappings = fixtures.loadMappings();
+		mc = new MinecraftJar(fixtures.minecraft);
+		output = Files.createTempFile("forgery-bench", ".jar");
+	}
+
+	@TearDown
+	public void tearDown() throws IOException {
+		mc.close();
+		Files.deleteIfExists(output);
+	}
+
+	@Benchmark
+	public void convert() throws IOException, JsonParserException {
+		Forgery.convert(fixtures.mod, output, fixtures.runtime, BenchmarkFixtures.PACKAGE, mappings, mc);
+	}
+
+	@Benchmark
+	public void remapClasses() throws IOException {
+		MappingSet intToSrg = mappings.getIntToSrg();
+		try (AtlasWithNewASM a = new AtlasWithNewASM()) {
+			// Lorenz's mapping sets can't be shared between threads, so as in Forgery.convert this
+			// runs on one thread whatever the threads parameter is
+			a.setParallelism(1);
+			a.getInheritanceProviders().add(mc.getInheritanceProvider());
+			a.install(ctx -> new JarEntryRemappingTransformer(new LorenzRemapper(intToSrg, ctx.inheritanceProvider())) {
+				@Override
+				public JarManifestEntry transform(JarManifestEntry entry) {
+					return entry;
+				}
+			});
+			a.run(fixtures.mod, output);
+		}
+	}
+
+	@Benchmark
+	public void remapClassesTable() throws IOException {
+		MappingTable table = mappings.getTable();
+		try (AtlasWithNewASM a = new AtlasWithNewASM()) {
+			a.setParallelism(threads);
+			a.getInheritanceProviders().add(mc.getInheritanceProvider());
+			a.install(ctx -> new JarEntryRemappingTransformer(new MappingTableRemapper(table, ctx.inheritanceProvider())) {
+				@Override
+				public JarManifestEntry transform(JarManifestEntry entry) {
+					return entry;
+				}
+			});
+			a.run(fixtures.mod, output);
+		}
+	}
+
+}
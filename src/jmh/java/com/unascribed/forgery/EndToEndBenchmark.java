@@ -0,0 +1,68 @@
+package com.unascribed.forgery;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.grack.nanojson.JsonParserException;
+
+/**
+ * A whole single-mod invocation from nothing, the way the command line runs it: build the
+ * mappings, open the Minecraft jar, convert. Each invocation starts from fresh mappings, so
+ * this is measured as single shots.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4G")
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+public class EndToEndBenchmark {
+
+	@Param("10000")
+	public int classes;
+
+	@Param("500")
+	public int modClasses;
+
+	@Param({"false", "true"})
+	public boolean lazyCompletion;
+
+	private BenchmarkFixtures fixtures;
+	private Path output;
+
+	@Setup
+	public void setup() throws IOException {
+		System.setProperty("forgery.lazyCompletion", Boolean.toString(lazyCompletion));
+		fixtures = BenchmarkFixtures.get(classes, modClasses);
+		output = Files.createTempFile("forgery-bench", ".jar");
+	}
+
+	@TearDown
+	public void tearDown() throws IOException {
+		Files.deleteIfExists(output);
+	}
+
+	@Benchmark
+	public void run() throws IOException, JsonParserException {
+		Mappings mappings = fixtures.loadMappings();
+		try (MinecraftJar mc = new MinecraftJar(fixtures.minecraft)) {
+			Forgery.convert(fixtures.mod, output, fixtures.runtime, BenchmarkFixtures.PACKAGE, mappings, mc);
+		}
+	}
+
+}
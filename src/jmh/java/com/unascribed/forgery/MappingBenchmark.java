@@ -0,0 +1,119 @@
+package com.unascribed.forgery;
+
+import java.io.FileReader;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import net.fabricmc.lorenztiny.TinyMappingsReader;
+import net.fabricmc.mappingio.tree.MemoryMappingTree;
+import org.cadixdev.lorenz.MappingSet;
+import org.cadixdev.lorenz.merge.FieldMergeStrategy;
+import org.cadixdev.lorenz.merge.MappingSetMerger;
+import org.cadixdev.lorenz.merge.MergeConfig;
+import org.cadixdev.lorenz.merge.MethodMergeStrategy;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Each step of building the Intermediary-to-SRG mappings on its own, plus the whole build and a
+ * mapping cache hit.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4G")
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class MappingBenchmark {
+
+	@Param("10000")
+	public int classes;
+
+	private BenchmarkFixtures fixtures;
+	private MemoryMappingTree intermediary;
+	private MappingSet offToSrg;
+	private MappingSet intToSrg;
+	private MappingCache cache;
+	private String cacheKey;
+
+	@Setup
+	public void setup() throws IOException {
+		// same fixtures as the other benchmarks, so they're only generated once
+		fixtures = BenchmarkFixtures.get(classes, 500);
+		intermediary = Forgery.readIntermediary(fixtures.intermediary.toString());
+		offToSrg = TSrg2Reader.read(fixtures.tsrg);
+		intToSrg = new FusedMappingBuilder(intermediary, offToSrg).build()[0];
+		Path cacheDir = Files.createTempDirectory("forgery-bench-cache");
+		cacheDir.toFile().deleteOnExit();
+		cache = new MappingCache(cacheDir);
+		cacheKey = MappingCache.key("srg", fixtures.intermediary, fixtures.tsrg);
+		cache.save(cacheKey, intToSrg, intToSrg.reverse());
+		cache.getFile(cacheKey).toFile().deleteOnExit();
+	}
+
+	@Benchmark
+	public MemoryMappingTree readIntermediary() throws IOException {
+		return Forgery.readIntermediary(fixtures.intermediary.toString());
+	}
+
+	@Benchmark
+	public MappingSet readTsrg2() throws IOException {
+		return TSrg2Reader.read(fixtures.tsrg);
+	}
+
+	/**
+	 * The line-by-line {@link TSrg2Reader.Processor}, for comparison with {@link #readTsrg2()}.
+	 */
+	@Benchmark
+	public MappingSet readTsrg2Lines() throws IOException {
+		try (FileReader r = new FileReader(fixtures.tsrg.toFile())) {
+			return new TSrg2Reader(r).read();
+		}
+	}
+
+	@Benchmark
+	public MappingSet[] join() {
+		return new FusedMappingBuilder(intermediary, offToSrg).build();
+	}
+
+	/**
+	 * The reverse, merge and reverse chain {@link FusedMappingBuilder} replaced, for comparison
+	 * with {@link #join()}.
+	 */
+	@Benchmark
+	public MappingSet[] mergeChain() throws IOException {
+		MappingSet intToOff = new TinyMappingsReader(intermediary, "official", "intermediary").read().reverse();
+		MappingSet intToSrg = MappingSetMerger.create(intToOff, offToSrg, MergeConfig.builder()
+				.withMethodMergeStrategy(MethodMergeStrategy.LOOSE)
+				.withFieldMergeStrategy(FieldMergeStrategy.LOOSE)
+				.build()).merge();
+		return new MappingSet[] { intToSrg, intToSrg.reverse() };
+	}
+
+	@Benchmark
+	public MappingSet reverse() {
+		return intToSrg.reverse();
+	}
+
+	@Benchmark
+	public MappingSet[] build() throws IOException {
+		return Forgery.buildMappings(fixtures.intermediary.toString(), fixtures.tsrg.toString(), null, null);
+	}
+
+	@Benchmark
+	public MappingSet[] loadCached() {
+		return cache.load(cacheKey);
+	}
+
+}
@@ -0,0 +1,85 @@
+package com.unascribed.forgery;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.ZipFile;
+
+import org.cadixdev.bombe.analysis.InheritanceProvider;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.grack.nanojson.JsonParserException;
+
+/**
+ * Remapping every refmap target of the generated mod through {@link Forgery#remap}, and the
+ * whole refmap file through {@link RefmapRemapper}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4G")
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class RefmapBenchmark {
+
+	@Param("10000")
+	public int classes;
+
+	@Param("500")
+	public int modClasses;
+
+	private MappingTable table;
+	private MinecraftJar mc;
+	private InheritanceProvider inh;
+	private List<String[]> entries;
+	private byte[] refmap;
+
+	@Setup
+	public void setup() throws IOException {
+		BenchmarkFixtures fixtures = BenchmarkFixtures.get(classes, modClasses);
+		table = fixtures.loadMappings().getTable();
+		mc = new MinecraftJar(fixtures.minecraft);
+		inh = mc.getInheritanceProvider();
+		entries = fixtures.readRefmapEntries();
+		try (ZipFile zip = new ZipFile(fixtures.mod.toFile())) {
+			refmap = zip.getInputStream(zip.getEntry("benchmod-refmap.json")).readAllBytes();
+		}
+	}
+
+	@TearDown
+	public void tearDown() throws IOException {
+		mc.close();
+	}
+
+	@Benchmark
+	public void remapRefmap(Blackhole bh) {
+		Map<String, String> yarnToInt = new HashMap<>();
+		for (String[] en : entries) {
+			bh.consume(Forgery.remap(en[1], en[0], table, yarnToInt, inh));
+		}
+	}
+
+	@Benchmark
+	public byte[] remapRefmapFile() throws JsonParserException {
+		Map<String, String> yarnToInt = new HashMap<>();
+		RemapCache cache = new RemapCache(table, inh);
+		return new RefmapRemapper((mapping, key) -> cache.remap(mapping, key, yarnToInt))
+				.remap(new ByteArrayInputStream(refmap));
+	}
+
+}
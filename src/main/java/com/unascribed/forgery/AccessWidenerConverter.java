@@ -0,0 +1,80 @@
+package com.unascribed.forgery;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+
+import org.cadixdev.bombe.analysis.InheritanceProvider;
+
+/**
+ * Converts access wideners to a Forge access transformer, a line at a time. Members are looked up
+ * in the {@link MappingTable}, which finds inherited members through the class hierarchy itself,
+ * so nothing needs completing first.
+ * <p>
+ * Any number of access wideners can be converted into the same access transformer.
+ */
+class AccessWidenerConverter {
+
+	private final MappingTable table;
+	private final InheritanceProvider inh;
+	private final StringBuilder out = new StringBuilder();
+	private int entries;
+
+	AccessWidenerConverter(MappingTable table, InheritanceProvider inh) {
+		this.table = table;
+		this.inh = inh;
+	}
+
+	/**
+	 * Converts every entry of the given access widener, after those already converted.
+	 */
+	void convert(Reader in) throws IOException {
+		BufferedReader br = in instanceof BufferedReader ? (BufferedReader)in : new BufferedReader(in);
+		// the header, naming the version and namespace
+		br.readLine();
+		String line;
+		while ((line = br.readLine()) != null) {
+			int hash = line.indexOf('#');
+			String content = (hash == -1 ? line : line.substring(0, hash)).trim();
+			if (content.isEmpty()) continue;
+			convertLine(line, content.split("\\s+"));
+		}
+	}
+
+	private void convertLine(String line, String[] split) {
+		if (split.length < 3) return;
+		String access = split[0];
+		if (access.startsWith("transitive-")) access = access.substring(11);
+		String type = split[1];
+		String mod = "accessible".equals(access) ? "public " : "public-f ";
+		String owner = table.mapClass(split[2]);
+		if (owner == null) owner = split[2];
+		owner = owner.replace('/', '.');
+		out.append("# ").append(line).append('\n');
+		if ("class".equals(type) || "extendable".equals(access)) {
+			out.append(mod).append(owner).append('\n');
+		}
+		if ("method".equals(type) && split.length >= 5) {
+			int mm = table.getMethod(inh, split[2], split[3], split[4]);
+			out.append(mod).append(owner).append(' ')
+				.append(mm == -1 ? split[3] : table.getDeobfName(mm))
+				.append(mm == -1 ? split[4] : table.getDeobfDesc(mm))
+				.append('\n');
+		} else if ("field".equals(type) && split.length >= 4) {
+			int fm = table.getField(inh, split[2], split[3], null);
+			out.append(mod).append(owner).append(' ')
+				.append(fm == -1 ? split[3] : table.getDeobfName(fm))
+				.append('\n');
+		}
+		entries++;
+	}
+
+	int getEntries() {
+		return entries;
+	}
+
+	byte[] toBytes() {
+		return out.toString().getBytes();
+	}
+
+}
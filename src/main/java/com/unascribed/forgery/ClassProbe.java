@@ -0,0 +1,98 @@
+package com.unascribed.forgery;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.objectweb.asm.AnnotationVisitor;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.FieldVisitor;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+
+/**
+ * Collects what decides how a class gets rewritten, meant to be run over a class without its
+ * code: whether it's a mod initializer or has {@code @OnlyIn} annotations to make visible, which
+ * both need the tree API, and the targets and members of a mixin.
+ */
+class ClassProbe extends ClassVisitor {
+
+	static final String MOD_INITIALIZER = "net/fabricmc/api/ModInitializer";
+	static final String ONLY_IN = "Lnet/minecraftforge/api/distmarker/OnlyIn;";
+	static final String MIXIN = "Lorg/spongepowered/asm/mixin/Mixin;";
+
+	boolean modInitializer;
+	boolean invisibleOnlyIn;
+	// internal names for class literals, and the strings as written otherwise
+	final List<String> mixinTargets = new ArrayList<>();
+	// name and descriptor pairs, in declaration order
+	final List<String> methods = new ArrayList<>();
+	final List<String> fields = new ArrayList<>();
+
+	ClassProbe() {
+		super(Opcodes.ASM9);
+	}
+
+	boolean needsTree() {
+		return modInitializer || invisibleOnlyIn;
+	}
+
+	@Override
+	public void visit(int version, int access, String name, String signature, String superName, String[] interfaces) {
+		if (interfaces != null) {
+			for (String itf : interfaces) {
+				if (itf.equals(MOD_INITIALIZER)) modInitializer = true;
+			}
+		}
+	}
+
+	@Override
+	public AnnotationVisitor visitAnnotation(String descriptor, boolean visible) {
+		if (visible) return null;
+		if (descriptor.equals(ONLY_IN)) invisibleOnlyIn = true;
+		if (!descriptor.equals(MIXIN)) return null;
+		return new AnnotationVisitor(api) {
+			@Override
+			public AnnotationVisitor visitArray(String name) {
+				if (!"value".equals(name) && !"targets".equals(name)) return null;
+				return new AnnotationVisitor(api) {
+					@Override
+					public void visit(String name, Object value) {
+						if (value instanceof Type) {
+							mixinTargets.add(((Type)value).getInternalName());
+						} else if (value instanceof String) {
+							mixinTargets.add((String)value);
+						}
+					}
+				};
+			}
+		};
+	}
+
+	@Override
+	public FieldVisitor visitField(int access, String name, String descriptor, String signature, Object value) {
+		fields.add(name);
+		fields.add(descriptor);
+		return invisibleOnlyIn ? null : new FieldVisitor(api) {
+			@Override
+			public AnnotationVisitor visitAnnotation(String descriptor, boolean visible) {
+				if (!visible && descriptor.equals(ONLY_IN)) invisibleOnlyIn = true;
+				return null;
+			}
+		};
+	}
+
+	@Override
+	public MethodVisitor visitMethod(int access, String name, String descriptor, String signature, String[] exceptions) {
+		methods.add(name);
+		methods.add(descriptor);
+		return invisibleOnlyIn ? null : new MethodVisitor(api) {
+			@Override
+			public AnnotationVisitor visitAnnotation(String descriptor, boolean visible) {
+				if (!visible && descriptor.equals(ONLY_IN)) invisibleOnlyIn = true;
+				return null;
+			}
+		};
+	}
+
+}
@@ -34,71 +34,63 @@ package com.unascribed.forgery;
 import java.io.BufferedReader;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
-import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
-import java.io.OutputStream;
-import java.io.StringReader;
 import java.io.UncheckedIOException;
-import java.nio.file.FileSystem;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
-import java.util.Collection;
+import java.util.Arrays;
 import java.util.Date;
 import java.util.HashMap;
-import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.Optional;
 import java.util.Set;
-import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiFunction;
 import java.util.function.Function;
 import java.util.jar.Attributes;
-import java.util.jar.JarFile;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.zip.Deflater;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
 
 import net.fabricmc.mappingio.MappingReader;
+import net.fabricmc.mappingio.tree.MappingTree;
 import net.fabricmc.mappingio.tree.MemoryMappingTree;
 import org.cadixdev.atlas.AtlasWithNewASM;
-import org.cadixdev.atlas.util.NIOHelper;
 import org.cadixdev.bombe.analysis.InheritanceProvider;
-import org.cadixdev.bombe.asm.analysis.ClassProviderInheritanceProvider;
-import org.cadixdev.bombe.asm.jar.JarFileClassProvider;
 import org.cadixdev.bombe.jar.JarClassEntry;
 import org.cadixdev.bombe.jar.JarEntryTransformer;
 import org.cadixdev.bombe.jar.JarManifestEntry;
 import org.cadixdev.bombe.jar.JarResourceEntry;
 import org.cadixdev.bombe.jar.asm.JarEntryRemappingTransformer;
-import org.cadixdev.bombe.type.ArrayType;
-import org.cadixdev.bombe.type.FieldType;
-import org.cadixdev.bombe.type.MethodDescriptor;
-import org.cadixdev.bombe.type.MethodDescriptorReader;
-import org.cadixdev.bombe.type.ObjectType;
-import org.cadixdev.bombe.type.signature.FieldSignature;
-import org.cadixdev.bombe.type.signature.MethodSignature;
 import org.cadixdev.lorenz.MappingSet;
-import org.cadixdev.lorenz.merge.FieldMergeStrategy;
-import org.cadixdev.lorenz.merge.MappingSetMerger;
-import org.cadixdev.lorenz.merge.MergeConfig;
-import org.cadixdev.lorenz.merge.MethodMergeStrategy;
 import org.cadixdev.lorenz.model.ClassMapping;
-import org.cadixdev.lorenz.model.FieldMapping;
-import org.cadixdev.lorenz.model.InnerClassMapping;
-import org.cadixdev.lorenz.model.MethodMapping;
 import org.cadixdev.lorenz.model.TopLevelClassMapping;
 import org.objectweb.asm.ClassReader;
 import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.commons.ClassRemapper;
+import org.objectweb.asm.commons.Remapper;
 import org.objectweb.asm.Opcodes;
-import org.objectweb.asm.Type;
 import org.objectweb.asm.tree.AbstractInsnNode;
 import org.objectweb.asm.tree.AnnotationNode;
 import org.objectweb.asm.tree.ClassNode;
-import org.objectweb.asm.tree.FieldInsnNode;
 import org.objectweb.asm.tree.FieldNode;
 import org.objectweb.asm.tree.MethodInsnNode;
 import org.objectweb.asm.tree.MethodNode;
@@ -108,8 +100,6 @@ import com.grack.nanojson.JsonParserException;
 import com.grack.nanojson.JsonWriter;
 
 import org.cadixdev.lorenz.asm.LorenzRemapper;
-import org.cadixdev.lorenz.io.proguard.ProGuardReader;
-import net.fabricmc.lorenztiny.TinyMappingsReader;
 
 @SuppressWarnings("deprecation")
 public class Forgery {
@@ -117,6 +107,26 @@ public class Forgery {
 	public static void main(String[] args) throws IOException, JsonParserException {
 		System.err.println("Forgery v0.2.0");
 		System.err.println("NOTICE: Forgery is NOT a silver bullet. It is not a magical Fabric-to-Forge converter. For a mod to successfully convert with Forgery, it must have changes made to it to work on both loaders. Forgery simply facilitates remapping.");
+		if (args.length > 0 && args[0].equals("--batch")) {
+			batch(Arrays.copyOfRange(args, 1, args.length));
+			return;
+		}
+		if (args.length == 2 && args[0].equals("--daemon")) {
+			new ForgeryDaemon(Integer.parseInt(args[1])).run();
+			return;
+		}
+		if (args.length > 2 && args[0].equals("--submit")) {
+			List<String> request = new ArrayList<>();
+			request.add("convert");
+			for (int i = 2; i < args.length; i++) {
+				// the daemon has its own working directory; the seventh argument is the package name, not a path
+				request.add(i == 8 ? args[i] : Paths.get(args[i]).toAbsolutePath().toString());
+			}
+			String response = ForgeryDaemon.submit(Integer.parseInt(args[1]), request.toArray(new String[0]));
+			System.out.println(response);
+			if (response == null || !response.startsWith("ok")) System.exit(1);
+			return;
+		}
 		if (args.length != 7 && args.length != 9) {
 			System.err.println("Forgery requires seven (nine for 1.18) arguments. Input Fabric mod, output Forge mod, Intermediary tiny mappings, MCP mcp_mappings.tsrg, Forgery runtime JAR, Intermediary remapped Minecraft JAR, package name, official client mappings (1.18 only), and official server mappings (1.18 only).");
 			System.err.println("You can find the Intermediary mappings in ~/.gradle/caches/fabric-loom/mappings/intermediary-1.16.4-v2.tiny");
@@ -126,418 +136,356 @@ public class Forgery {
 			System.exit(1);
 			return;
 		}
-		String pkg = args[6].replace('/', '.');
-		String pkgBin = pkg.replace('.', '/');
-		ZipFile in = new ZipFile(args[0]);
-		if (in.getEntry("fabric.mod.json") == null) {
+		if (!isFabricMod(Paths.get(args[0]))) {
 			System.err.println(args[0]+" doesn't look like a Fabric mod.");
 			return;
 		}
-		JsonObject fabricMod = JsonParser.object().from(in.getInputStream(in.getEntry("fabric.mod.json")));
-		JsonObject mixins = null;
-		String refmapFile;
-		String refmapStr;
-		if (fabricMod.has("mixins") && !fabricMod.getArray("mixins").isEmpty()) {
-			mixins = JsonParser.object().from(in.getInputStream(in.getEntry(fabricMod.getArray("mixins").getString(0))));
-			refmapFile = mixins.getString("refmap");
-			if (refmapFile != null) {
-				ByteArrayOutputStream baos = new ByteArrayOutputStream();
-				try (InputStream is = in.getInputStream(in.getEntry(refmapFile))) {
-					is.transferTo(baos);
+		System.out.println("Building mappings...");
+		Mappings mappings = loadMappings(args[2], args[3], args.length == 9 ? args[7] : null, args.length == 9 ? args[8] : null);
+		try (MinecraftJar mc = new MinecraftJar(Paths.get(args[5]))) {
+			convert(Paths.get(args[0]), Paths.get(args[1]), Paths.get(args[4]), args[6], mappings, mc);
+		}
+	}
+
+	private static void batch(String[] args) throws IOException, JsonParserException {
+		if (args.length != 4 && args.length != 6) {
+			System.err.println("Batch mode requires four (six for 1.18) arguments. Batch manifest, Intermediary tiny mappings, MCP mcp_mappings.tsrg, Intermediary remapped Minecraft JAR, official client mappings (1.18 only), and official server mappings (1.18 only).");
+			System.err.println("Each non-blank line of the manifest that doesn't start with # is a tab-separated input Fabric mod, output Forge mod, Forgery runtime JAR, and package name.");
+			System.exit(1);
+			return;
+		}
+		List<String[]> jobs = new ArrayList<>();
+		for (String line : Files.readAllLines(Paths.get(args[0]))) {
+			if (line.isBlank() || line.startsWith("#")) continue;
+			String[] split = line.split("\t");
+			if (split.length != 4) {
+				System.err.println("Malformed batch manifest line: "+line);
+				System.exit(1);
+				return;
+			}
+			jobs.add(split);
+		}
+		System.out.println("Building mappings...");
+		long start = System.nanoTime();
+		int batchThreads = Integer.getInteger("forgery.batchThreads", 1);
+		// mods converted at once share the mappings, which Lorenz can't do safely
+		Mappings mappings = loadMappings(args[1], args[2], args.length == 6 ? args[4] : null, args.length == 6 ? args[5] : null,
+				batchThreads > 1 || Boolean.getBoolean("forgery.mappingTable"));
+		long[] times = new long[jobs.size()];
+		Throwable[] failures = new Throwable[jobs.size()];
+		try (MinecraftJar mc = new MinecraftJar(Paths.get(args[3]))) {
+			long setupTime = System.nanoTime()-start;
+			ExecutorService exec = Executors.newFixedThreadPool(batchThreads);
+			List<Future<?>> futures = new ArrayList<>();
+			for (int i = 0; i < jobs.size(); i++) {
+				int idx = i;
+				String[] job = jobs.get(i);
+				futures.add(exec.submit(() -> {
+					long jobStart = System.nanoTime();
+					try {
+						System.out.println("Converting "+job[0]+"...");
+						convert(Paths.get(job[0]), Paths.get(job[1]), Paths.get(job[2]), job[3], mappings, mc);
+					} catch (Throwable t) {
+						System.err.println("Failed to convert "+job[0]);
+						t.printStackTrace();
+						failures[idx] = t;
+					}
+					times[idx] = System.nanoTime()-jobStart;
+				}));
+			}
+			for (Future<?> f : futures) {
+				try {
+					f.get();
+				} catch (InterruptedException | ExecutionException e) {
+					throw new IOException(e);
 				}
-				refmapStr = new String(baos.toByteArray());
-			} else {
-				refmapStr = null;
 			}
-		} else {
-			refmapFile = null;
-			refmapStr = null;
+			exec.shutdown();
+			System.out.println("Batch summary:");
+			System.out.printf("%8d ms  setup%n", TimeUnit.NANOSECONDS.toMillis(setupTime));
+			int failed = 0;
+			for (int i = 0; i < jobs.size(); i++) {
+				System.out.printf("%8d ms  %s  %s%n", TimeUnit.NANOSECONDS.toMillis(times[i]), failures[i] == null ? "ok    " : "FAILED", jobs.get(i)[0]);
+				if (failures[i] != null) failed++;
+			}
+			System.out.printf("%8d ms  total, %d of %d converted%n", TimeUnit.NANOSECONDS.toMillis(System.nanoTime()-start), jobs.size()-failed, jobs.size());
+			if (failed > 0) System.exit(1);
+		}
+	}
+
+	private static boolean isFabricMod(Path input) throws IOException {
+		try (ZipFile in = new ZipFile(input.toFile())) {
+			return in.getEntry("fabric.mod.json") != null;
 		}
+	}
+
+	public static void convert(Path input, Path output, Path runtimePath, String pkgName, Mappings mappings, MinecraftJar mc) throws IOException, JsonParserException {
+		int threads = Integer.getInteger("forgery.threads", 1);
+		// Lorenz completes and creates mappings as it's used, so it can't be shared between
+		// threads; the table is read-only
+		MappingSet intToSrg = threads > 1 ? null : mappings.getIntToSrg();
+		MappingTable table = mappings.getTable();
+		String pkg = pkgName.replace('/', '.');
+		String pkgBin = pkg.replace('.', '/');
+		Report report = new Report();
+		report.include(mappings.getLoadReport());
+		report.count("bytes.input", Files.size(input));
+		InheritanceProvider inh = mc.getInheritanceProvider();
+		// the Minecraft jar outlives this conversion, so only count what it adds
+		long mcHits = mc.getInheritanceProvider().getHits();
+		long mcMisses = mc.getInheritanceProvider().getMisses();
+		JsonObject fabricMod;
+		List<String> mixinConfigs = new ArrayList<>();
+		Set<String> refmapFiles = new LinkedHashSet<>();
 		String fabAbsRefMapStr = null;
 		String fabRelRefMapStr = null;
-		{
-			ByteArrayOutputStream baos = new ByteArrayOutputStream();
-			try (InputStream is = in.getInputStream(in.getEntry("fabAbsRefMap.txt"))) {
-				is.transferTo(baos);
+		Map<String, byte[]> accessWideners = new LinkedHashMap<>();
+		ReferenceScanner references = Boolean.getBoolean("forgery.lazyCompletion") ? new ReferenceScanner(threads) : null;
+		// filled in by every refmap at once
+		Map<String, String> yarnToInt = new ConcurrentHashMap<>();
+		RemapCache remapCache = new RemapCache(table, inh);
+		Map<String, byte[]> refmaps = new HashMap<>();
+		Report.Stage stage = report.stage("read");
+		try (ZipFile in = new ZipFile(input.toFile())) {
+			if (in.getEntry("fabric.mod.json") == null) {
+				throw new IllegalArgumentException(input+" doesn't look like a Fabric mod.");
 			}
-			fabAbsRefMapStr = baos.toString();
-			baos = new ByteArrayOutputStream();
-			try (InputStream is = in.getInputStream(in.getEntry("fabRelRefMap.txt"))) {
-				is.transferTo(baos);
+			fabricMod = JsonParser.object().from(in.getInputStream(in.getEntry("fabric.mod.json")));
+			if (fabricMod.has("mixins")) {
+				for (Object o : fabricMod.getArray("mixins")) {
+					// either a path, or an object with the path and the side it applies to
+					String config = o instanceof JsonObject ? ((JsonObject)o).getString("config") : (String)o;
+					mixinConfigs.add(config);
+					JsonObject mixins = JsonParser.object().from(in.getInputStream(in.getEntry(config)));
+					if (mixins.has("refmap")) refmapFiles.add(mixins.getString("refmap"));
+				}
 			}
-			fabRelRefMapStr = baos.toString();
-		}
-		in.close();
-		System.out.println("Building mappings...");
-		MemoryMappingTree mappingTree = new MemoryMappingTree();
-		MappingReader.read(new BufferedReader(new FileReader(args[2])), mappingTree);
-		MappingSet offToInt = new TinyMappingsReader(mappingTree, "official", "intermediary").read();
-		MappingSet intToOff = offToInt.reverse();
-		MappingSet offToSrg = new TSrg2Reader(new FileReader(args[3])).read();
-		if (args.length == 9) {
-			MappingSet offToMojClient = new ProGuardReader(new FileReader(args[7])).read().reverse();
-			MappingSet offToMojServer = new ProGuardReader(new FileReader(args[8])).read().reverse();
-			MappingSet offToSrgWithMojClasses = offToSrg.copy();
-			for (TopLevelClassMapping cm : offToInt.getTopLevelClassMappings()) {
-				mojifyRecursively(offToSrg, offToMojClient, offToMojServer, offToSrgWithMojClasses, cm);
+			{
+				ByteArrayOutputStream baos = new ByteArrayOutputStream();
+				try (InputStream is = in.getInputStream(in.getEntry("fabAbsRefMap.txt"))) {
+					is.transferTo(baos);
+				}
+				fabAbsRefMapStr = baos.toString();
+				baos = new ByteArrayOutputStream();
+				try (InputStream is = in.getInputStream(in.getEntry("fabRelRefMap.txt"))) {
+					is.transferTo(baos);
+				}
+				fabRelRefMapStr = baos.toString();
 			}
-			offToSrg = offToSrgWithMojClasses;
-		}
-		MappingSet intToSrg = MappingSetMerger.create(intToOff, offToSrg, MergeConfig.builder()
-				.withMethodMergeStrategy(MethodMergeStrategy.LOOSE)
-				.withFieldMergeStrategy(FieldMergeStrategy.LOOSE)
-				.build()).merge();
-		Map<String, String> yarnToInt = new HashMap<>();
-//		new TSrgWriter(new FileWriter("merged.tsrg")).write(intToSrg);
-		MappingSet srgToInt = intToSrg.reverse();
-		
-		intToSrg.createTopLevelClassMapping("net/fabricmc/api/Environment", "net/minecraftforge/api/distmarker/OnlyIn");
-		TopLevelClassMapping envType = intToSrg.createTopLevelClassMapping("net/fabricmc/api/EnvType", "net/minecraftforge/api/distmarker/Dist");
-		envType.createFieldMapping("SERVER", "DEDICATED_SERVER");
-		intToSrg.createTopLevelClassMapping("io.github.prospector.modmenu.api.ModMenuApi", pkg+".ModMenuAdapter");
-		intToSrg.createTopLevelClassMapping("io.github.prospector.modmenu.api.ConfigScreenFactory", pkg+".ConfigScreenFactory");
-		intToSrg.createTopLevelClassMapping("com.terraformersmc.modmenu.api.ModMenuApi", pkg+".ModMenuAdapter");
-		intToSrg.createTopLevelClassMapping("com.terraformersmc.modmenu.api.ConfigScreenFactory", pkg+".ConfigScreenFactory");
-		System.out.println("Remapping...");
-		AtlasWithNewASM a = new AtlasWithNewASM();
-		a.getClasspath().add(new File(args[5]).toPath());
-		
-		JsonObject refmap;
-		if (refmapStr != null) {
-			InheritanceProvider inh = new ClassProviderInheritanceProvider(Opcodes.ASM9, new JarFileClassProvider(new JarFile(new File(args[5]))));
-			refmap = JsonParser.object().from(refmapStr);
-			JsonObject nwMappings = new JsonObject();
-			JsonObject mappings = refmap.getObject("mappings");
-			for (Map.Entry<String, Object> en : mappings.entrySet()) {
-				JsonObject nw = new JsonObject();
-				nwMappings.put(en.getKey(), nw);
-				JsonObject obj = (JsonObject)en.getValue();
-				for (Map.Entry<String, Object> en2 : obj.entrySet()) {
-					String mapping = (String)en2.getValue();
-					String remapped = remap(mapping, en2.getKey(), intToSrg, yarnToInt, inh);
-					if (remapped == null) continue;
-					nw.put(en2.getKey(), remapped);
+			for (ZipEntry ze : in.stream().filter(ze -> ze.getName().endsWith(".accesswidener")).collect(Collectors.toList())) {
+				try (InputStream is = in.getInputStream(ze)) {
+					accessWideners.put(ze.getName(), is.readAllBytes());
+				}
+			}
+			stage.close();
+			if (references != null) {
+				stage = report.stage("scan");
+				references.scanJar(in, refmapFiles);
+				stage.close();
+				stage = report.stage("prewarm");
+				int[] found = references.prewarm(table, inh);
+				stage.close();
+				report.count("references.classes", references.getClasses().size());
+				report.count("references.members", references.getMembers().size());
+				report.count("references.minecraftClasses", found[0]);
+				report.count("references.mappedMembers", found[1]);
+			}
+			stage = report.stage("refmap");
+			{
+				ExecutorService exec = Executors.newFixedThreadPool(Math.max(1, Math.min(threads, refmapFiles.size())));
+				try {
+					Map<String, CompletableFuture<byte[]>> futures = new LinkedHashMap<>();
+					for (String refmapFile : refmapFiles) {
+						futures.put(refmapFile, supplyAsync(() -> {
+							try (InputStream is = in.getInputStream(in.getEntry(refmapFile))) {
+								return new RefmapRemapper((mapping, key) -> remapCache.remap(mapping, key, yarnToInt)).remap(is);
+							} catch (JsonParserException e) {
+								throw new IOException("Malformed refmap "+refmapFile, e);
+							}
+						}, exec));
+					}
+					for (Map.Entry<String, CompletableFuture<byte[]>> en : futures.entrySet()) {
+						refmaps.put(en.getKey(), join(en.getValue()));
+					}
+				} finally {
+					exec.shutdown();
 				}
 			}
-			refmap.put("mappings", nwMappings);
-			refmap.getObject("data").put("named:srg", nwMappings.clone());
-		} else {
-			refmap = null;
 		}
+		System.out.println("Remapping...");
+		AtlasWithNewASM a = new AtlasWithNewASM();
+		a.setParallelism(threads);
+		a.setCompressionLevel(Integer.getInteger("forgery.compressionLevel", Deflater.DEFAULT_COMPRESSION));
+		a.getInheritanceProviders().add(inh);
+		report.count("refmaps", refmaps.size());
 		String fabRelRefMap;
 		String fabAbsRefMap;
 		{
-			InheritanceProvider inh = new ClassProviderInheritanceProvider(Opcodes.ASM9, new JarFileClassProvider(new JarFile(new File(args[5]))));
-			Map<String, String> discardMap = new HashMap<>();
+			Map<String, String> discardMap = new ConcurrentHashMap<>();
 			if (fabAbsRefMapStr != null) {
-				BufferedReader read = new BufferedReader(new StringReader(fabAbsRefMapStr));
-				StringBuilder write = new StringBuilder();
-				String l = read.readLine();
-				while (l != null) {
-					int i = l.indexOf(' ');
-					if (i == -1) {
-						write.append(l);
-					} else {
-						String remapped = remap(l.substring(i+1), "", intToSrg, discardMap, inh);
-						if (remapped != null) {
-							write.append(l, 0, i).append(' ').append(remapped);
-						} else {
-							write.append(l);
-						}
-					}
-					l = read.readLine();
-					if (l != null) write.append('\n');
-				}
-				String fabRefMap = write.toString();
+				String fabRefMap = remapFabAbsRefMap(fabAbsRefMapStr, threads, mapping -> remapCache.remap(mapping, "", discardMap));
 				fabAbsRefMap = fabRefMap.isBlank() ? null : fabRefMap;
 			} else {
 				fabAbsRefMap = null;
 			}
 			if (fabRelRefMapStr != null) {
-				BufferedReader read = new BufferedReader(new StringReader(fabRelRefMapStr));
-				StringBuilder write = new StringBuilder();
-				String k = read.readLine();
-				if (k != null) write.append(k).append('\n');
-				String l = k == null ? null : read.readLine();
-				while (l != null) {
-					String[] split = l.split("\t");
-					for (int x=0; x<split.length; x++) {
-						int i = split[x].indexOf(' ');
-						if (i != -1) {
-							String remapped = remap(split[x].substring(i+1), "", intToSrg, discardMap, inh);
-							if (remapped != null) {
-								split[x] = split[x].substring(0, i)+" "+remapped;
-							}
-						}
-					}
-					write.append(String.join("\t", split));
-					k = read.readLine();
-					if (k == null) break;
-					else write.append('\n').append(k);
-					l = read.readLine();
-					if (l != null) write.append('\n');
-				}
-				String fabRefMap = write.toString();
+				String fabRefMap = remapFabRelRefMap(fabRelRefMapStr, threads, mapping -> remapCache.remap(mapping, "", discardMap));
 				fabRelRefMap = fabRefMap.isBlank() ? null : fabRefMap;
 			} else {
 				fabRelRefMap = null;
 			}
 		}
+		remapCache.report(report);
+		stage.close();
+		// every access widener is converted into the one access transformer while the jar is
+		// transformed, and written out in place of the first
+		String firstAccessWidener = accessWideners.isEmpty() ? null : accessWideners.keySet().iterator().next();
+		CompletableFuture<byte[]> accessTransformer;
+		if (firstAccessWidener != null) {
+			ExecutorService exec = Executors.newSingleThreadExecutor();
+			accessTransformer = supplyAsync(() -> {
+				Report.Stage awStage = report.stage("accessWidener");
+				try {
+					AccessWidenerConverter converter = new AccessWidenerConverter(table, inh);
+					for (byte[] aw : accessWideners.values()) {
+						converter.convert(new InputStreamReader(new ByteArrayInputStream(aw)));
+					}
+					report.count("accessWidener.entries", converter.getEntries());
+					return converter.toBytes();
+				} finally {
+					awStage.close();
+				}
+			}, exec);
+			exec.shutdown();
+		} else {
+			accessTransformer = null;
+		}
 		
-		a.install(ctx -> {
-			for (TopLevelClassMapping tlcm : srgToInt.getTopLevelClassMappings()) {
-				completeRecursively(tlcm, ctx.inheritanceProvider());
+		// completes the mappings the remapper will look members up in
+		if (intToSrg != null) a.install(ctx -> {
+			if (references == null) {
+				for (TopLevelClassMapping tlcm : intToSrg.getTopLevelClassMappings()) {
+					completeRecursively(tlcm, ctx.inheritanceProvider());
+				}
+				report.count("completions", intToSrg.getTopLevelClassMappings().size());
+			} else {
+				int completed = 0;
+				for (String name : references.getClasses()) {
+					ClassMapping<?, ?> cm = intToSrg.getClassMapping(name).orElse(null);
+					if (cm == null) continue;
+					cm.complete(ctx.inheritanceProvider());
+					completed++;
+				}
+				System.out.println("Completed "+completed+" of "+references.getClasses().size()+" referenced classes");
+				report.count("completions", completed);
 			}
 			return new JarEntryTransformer() {};
 		});
-		a.install(ctx -> new JarEntryRemappingTransformer(new LorenzRemapper(intToSrg, ctx.inheritanceProvider())) {
-			@Override
-			public JarManifestEntry transform(JarManifestEntry entry) {
-				// avoid NPE due to missing Main-Class
-				return entry;
-			}
-		});
-		a.install(ctx -> new JarEntryTransformer() {
-			@Override
-			public JarResourceEntry transform(JarResourceEntry entry) {
-				if (entry.getName().equals("fabric.mod.json")) {
-					StringBuilder toml = new StringBuilder("modLoader=\"javafml\"\n");
-					toml.append("loaderVersion=\"[32,)\"\n");
-					toml.append("license=");
-					toml.append(JsonWriter.string(fabricMod.get("license")));
-					toml.append("\n[[mods]]\n");
-					String[] keys = {
-							"id", "modId",
-							"version", "version",
-							"name", "displayName",
-							"authors", "authors",
-							"description", "description"
-					};
-					for (int i = 0; i < keys.length; i += 2) {
-						String fab = keys[i];
-						String frg = keys[i+1];
-						if (!fabricMod.has(fab)) continue;
-						toml.append(frg);
-						toml.append("=");
-						toml.append(JsonWriter.string(fabricMod.get(fab)));
-						toml.append("\n");
-					}
-					return new JarResourceEntry("META-INF/mods.toml", entry.getTime(), toml.toString().getBytes());
-				} else if (entry.getName().equals(refmapFile)) {
-					return new JarResourceEntry(entry.getName(), entry.getTime(), JsonWriter.indent("\t").string().value(refmap).done().getBytes());
-				} else if (entry.getName().equals("fabRelRefMap.txt")) {
-					if (fabRelRefMap != null) {
-						return new JarResourceEntry(entry.getName(), entry.getTime(), fabRelRefMap.getBytes());
-					}
-				} else if (entry.getName().equals("fabAbsRefMap.txt")) {
-					if (fabAbsRefMap != null) {
-						return new JarResourceEntry(entry.getName(), entry.getTime(), fabAbsRefMap.getBytes());
-					}
-				} else if (entry.getName().endsWith(".accesswidener")) {
-					try {
-						BufferedReader br = new BufferedReader(new InputStreamReader(new ByteArrayInputStream(entry.getContents())));
-						StringBuilder bldr = new StringBuilder();
-						br.readLine();
-						while (true) {
-							String line = br.readLine();
-							if (line == null) break;
-							String[] split = line.split("\t");
-							String access = split[0];
-							String type = split[1];
-							String mod;
-							if ("accessible".equals(access)) {
-								mod = "public ";
-							} else {
-								mod = "public-f ";
-							}
-							ClassMapping<?, ?> cm = intToSrg.getClassMapping(split[2]).orElse(null);
-							if (cm != null) cm.complete(ctx.inheritanceProvider());
-							bldr.append("# ");
-							bldr.append(line);
-							bldr.append("\n");
-							if ("class".equals(type) || "extendable".equals(access)) {
-								bldr.append(mod);
-								bldr.append((cm == null ? split[2] : cm.getFullDeobfuscatedName()).replace('/', '.'));
-								bldr.append("\n");
-							}
-							if ("method".equals(type)) {
-								bldr.append(mod);
-								bldr.append((cm == null ? split[2] : cm.getFullDeobfuscatedName()).replace('/', '.'));
-								MethodMapping mm = cm == null ? null : cm.getMethodMapping(split[3], split[4]).orElse(null);
-								bldr.append(" ");
-								bldr.append(mm == null ? split[3] : mm.getDeobfuscatedName());
-								bldr.append(mm == null ? split[4] : mm.getDeobfuscatedDescriptor());
-								bldr.append("\n");
-							} else if ("field".equals(type)) {
-								bldr.append(mod);
-								bldr.append((cm == null ? split[2] : cm.getFullDeobfuscatedName()).replace('/', '.'));
-								FieldMapping fm = cm == null ? null : cm.getFieldMapping(split[3]).orElse(null);
-								bldr.append(" ");
-								bldr.append(fm == null ? split[3] : fm.getDeobfuscatedName());
-								bldr.append("\n");
-							}
+		a.install(ctx -> {
+			Remapper remapper = createRemapper(intToSrg, table, ctx.inheritanceProvider(), pkgBin);
+			// remapping and Forgery's own changes share one transformer, so each class is only
+			// read and written once
+			return new JarEntryRemappingTransformer(remapper) {
+				@Override
+				public JarResourceEntry transform(JarResourceEntry entry) {
+					if (entry.getName().equals("fabric.mod.json")) {
+						StringBuilder toml = new StringBuilder("modLoader=\"javafml\"\n");
+						toml.append("loaderVersion=\"[32,)\"\n");
+						toml.append("license=");
+						toml.append(JsonWriter.string(fabricMod.get("license")));
+						toml.append("\n[[mods]]\n");
+						String[] keys = {
+								"id", "modId",
+								"version", "version",
+								"name", "displayName",
+								"authors", "authors",
+								"description", "description"
+						};
+						for (int i = 0; i < keys.length; i += 2) {
+							String fab = keys[i];
+							String frg = keys[i+1];
+							if (!fabricMod.has(fab)) continue;
+							toml.append(frg);
+							toml.append("=");
+							toml.append(JsonWriter.string(fabricMod.get(fab)));
+							toml.append("\n");
+						}
+						return new JarResourceEntry("META-INF/mods.toml", entry.getTime(), toml.toString().getBytes());
+					} else if (refmaps.containsKey(entry.getName())) {
+						return new JarResourceEntry(entry.getName(), entry.getTime(), refmaps.get(entry.getName()));
+					} else if (entry.getName().equals("fabRelRefMap.txt")) {
+						if (fabRelRefMap != null) {
+							return new JarResourceEntry(entry.getName(), entry.getTime(), fabRelRefMap.getBytes());
+						}
+					} else if (entry.getName().equals("fabAbsRefMap.txt")) {
+						if (fabAbsRefMap != null) {
+							return new JarResourceEntry(entry.getName(), entry.getTime(), fabAbsRefMap.getBytes());
+						}
+					} else if (entry.getName().endsWith(".accesswidener")) {
+						if (!entry.getName().equals(firstAccessWidener)) return null;
+						try {
+							return new JarResourceEntry("META-INF/accesstransformer.cfg", entry.getTime(), join(accessTransformer));
+						} catch (IOException e) {
+							throw new UncheckedIOException(e);
 						}
-						return new JarResourceEntry("META-INF/accesstransformer.cfg", entry.getTime(), bldr.toString().getBytes());
-					} catch (IOException e) {
-						throw new UncheckedIOException(e);
 					}
+					return entry;
 				}
-				return entry;
-			}
 			
-			@Override
-			public JarManifestEntry transform(JarManifestEntry entry) {
-				Attributes attr = entry.getManifest().getMainAttributes();
-				attr.putValue("Specification-Title", fabricMod.getString("id"));
-				if (fabricMod.has("authors")) attr.putValue("Specification-Vendor", fabricMod.getArray("authors").getString(0));
-				attr.putValue("Specification-Version", "1");
-				attr.putValue("Implementation-Title", fabricMod.getString("name"));
-				if (fabricMod.has("authors")) attr.putValue("Implementation-Vendor", fabricMod.getArray("authors").getString(0));
-				attr.putValue("Implementation-Version", fabricMod.getString("version"));
-				attr.putValue("Implementation-Timestamp", new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ssZ").format(new Date()));
-				if (fabricMod.has("mixins")) {
-					attr.putValue("MixinConfigs", fabricMod.getArray("mixins").getString(0));
+				@Override
+				public JarManifestEntry transform(JarManifestEntry entry) {
+					Attributes attr = entry.getManifest().getMainAttributes();
+					attr.putValue("Specification-Title", fabricMod.getString("id"));
+					if (fabricMod.has("authors")) attr.putValue("Specification-Vendor", fabricMod.getArray("authors").getString(0));
+					attr.putValue("Specification-Version", "1");
+					attr.putValue("Implementation-Title", fabricMod.getString("name"));
+					if (fabricMod.has("authors")) attr.putValue("Implementation-Vendor", fabricMod.getArray("authors").getString(0));
+					attr.putValue("Implementation-Version", fabricMod.getString("version"));
+					attr.putValue("Implementation-Timestamp", new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ssZ").format(new Date()));
+					if (!mixinConfigs.isEmpty()) {
+						attr.putValue("MixinConfigs", String.join(",", mixinConfigs));
+					}
+					return entry;
 				}
-				return entry;
-			}
 			
-			@Override
-			public JarClassEntry transform(JarClassEntry entry) {
-				ClassReader cr = new ClassReader(entry.getContents());
-				ClassNode node = new ClassNode();
-				final AtomicBoolean changed = new AtomicBoolean(false);
-				cr.accept(node, 0);
-				if (node.interfaces != null) {
-					if (node.interfaces.contains("net/fabricmc/api/ModInitializer")) {
-						node.interfaces.remove("net/fabricmc/api/ModInitializer");
-						if (node.visibleAnnotations == null) node.visibleAnnotations = new ArrayList<>();
-						AnnotationNode atMod = new AnnotationNode("Lnet/minecraftforge/fml/common/Mod;");
-						atMod.values = new ArrayList<>();
-						atMod.values.add("value");
-						atMod.values.add(fabricMod.getString("id"));
-						node.visibleAnnotations.add(atMod);
-						String originalSuper = node.superName;
-						node.superName = pkgBin+"/ConvertedModInitializer";
-						for (MethodNode mn : node.methods) {
-							if (mn.name.equals("<init>")) {
-								// correct super() calls
-								for (AbstractInsnNode insn : mn.instructions) {
-									if (insn.getOpcode() == Opcodes.INVOKESPECIAL) {
-										MethodInsnNode min = (MethodInsnNode)insn;
-										if (min.name.equals("<init>") && min.owner.equals(originalSuper)) {
-											min.owner = node.superName;
-										}
-									}
-								}
-							}
-						}
-						changed.set(true);
+				@Override
+				public JarClassEntry transform(JarClassEntry entry) {
+					ClassReader cr = new ClassReader(entry.getContents());
+					String name = entry.getName();
+					name = remapper.map(name.substring(0, name.length()-6))+".class";
+					// probe the remapped class without its code to find out what it needs
+					ClassProbe probe = new ClassProbe();
+					cr.accept(new ClassRemapper(probe, remapper), ClassReader.SKIP_CODE | ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES);
+					if (!probe.needsTree()) {
+						// not seeded from the reader, which would keep every Intermediary name in the constant pool
+						ClassWriter cw = new ClassWriter(0);
+						MixinRetargeter retargeter = MixinRetargeter.create(probe, cw, table, ctx.inheritanceProvider(), yarnToInt);
+						report.count(retargeter != null ? "classes.mixins" : "classes.remapped", 1);
+						cr.accept(new ClassRemapper(retargeter != null ? retargeter : cw, remapper), 0);
+						return new JarClassEntry(name, entry.getTime(), cw.toByteArray());
 					}
-				}
-				node.visibleAnnotations = hoist(node.invisibleAnnotations, node.visibleAnnotations, () -> changed.set(true));
-				for (MethodNode mn : node.methods) {
-					mn.visibleAnnotations = hoist(mn.invisibleAnnotations, mn.visibleAnnotations, () -> changed.set(true));
-				}
-				for (FieldNode fn : node.fields) {
-					fn.visibleAnnotations = hoist(fn.invisibleAnnotations, fn.visibleAnnotations, () -> changed.set(true));
-				}
-				if (node.invisibleAnnotations != null) {
-					for (AnnotationNode ann : node.invisibleAnnotations) {
-						if (ann.desc.equals("Lorg/spongepowered/asm/mixin/Mixin;")) {
-							for (int i = 0; i < ann.values.size(); i += 2) {
-								String k = (String)ann.values.get(i);
-								if ("value".equals(k) || "targets".equals(k)) {
-									List<String> targets;
-									if ("value".equals(k)) {
-										targets = new ArrayList<>();
-										for (Type t : (List<Type>)ann.values.get(i+1)) {
-											targets.add(t.getClassName());
-										}
-									} else {
-										targets = (List<String>)ann.values.get(i+1);
-									}
-									for (String tgt : targets) {
-										ClassMapping<?, ?> cm;
-										if (yarnToInt.containsKey(tgt)) {
-											cm = intToSrg.getClassMapping(yarnToInt.get(tgt)).orElse(null);
-											if (cm == null) {
-												continue;
-											}
-										} else {
-											ClassMapping<?, ?> cm2 = srgToInt.getClassMapping(tgt).orElse(null);
-											if (cm2 == null) {
-												continue;
-											}
-											cm = intToSrg.getClassMapping(cm2.getFullDeobfuscatedName()).get();
-										}
-										cm.complete(ctx.inheritanceProvider());
-										if (cm != null) {
-											Map<String, String> renamedMethods = new HashMap<>();
-											Map<String, String> renamedFields = new HashMap<>();
-											for (MethodNode mn : node.methods) {
-												for (MethodMapping mm : cm.getMethodMappings()) {
-													if (mm.getObfuscatedName().equals(mn.name)) {
-														renamedMethods.put(mn.name+mn.desc, mm.getDeobfuscatedName()+"\0"+mm.getDeobfuscatedDescriptor());
-														mn.name = mm.getDeobfuscatedName();
-														mn.desc = mm.getDeobfuscatedDescriptor();
-														changed.set(true);
-														break;
-													}
-												}
-											}
-											for (FieldNode fn : node.fields) {
-												FieldMapping fm = cm.getFieldMapping(fn.name).orElse(null);
-												if (fm != null) {
-													renamedFields.put(fn.name, fm.getDeobfuscatedName());
-													fn.name = fm.getDeobfuscatedName();
-													fn.desc = fm.getDeobfuscatedSignature().getType().get().toString();
-													changed.set(true);
-												}
-											}
-											for (MethodNode mn : node.methods) {
-												for (AbstractInsnNode insn : mn.instructions) {
-													if (insn instanceof FieldInsnNode) {
-														FieldInsnNode fin = (FieldInsnNode)insn;
-														if (renamedFields.containsKey(fin.name)) {
-															fin.name = renamedFields.get(fin.name);
-														}
-														if (fin.name.startsWith("field_") && fin.name.lastIndexOf('_') == 5) {
-															ClassMapping<?, ?> mcm2 = srgToInt.getClassMapping(fin.owner).orElse(null);
-															if (mcm2 != null) {
-																ClassMapping<?, ?> mcm = intToSrg.getClassMapping(mcm2.getDeobfuscatedName()).orElse(null);
-																if (mcm != null) {
-																	FieldMapping fm = mcm.getFieldMapping(fin.name).orElse(null);
-																	if (fm != null) {
-																		fin.name = fm.getDeobfuscatedName();
-																		fin.desc = fm.getDeobfuscatedSignature().getType().get().toString();
-																		changed.set(true);
-																	}
-																}
-															}
-														}
-													} else if (insn instanceof MethodInsnNode) {
-														MethodInsnNode min = (MethodInsnNode)insn;
-														if (renamedMethods.containsKey(min.name+min.desc)) {
-															String s = renamedMethods.get(min.name+min.desc);
-															min.name = s.substring(0, s.indexOf('\0'));
-															min.desc = s.substring(s.indexOf('\0')+1);
-														}
-														if (min.name.startsWith("method_")) {
-															ClassMapping<?, ?> mcm2 = srgToInt.getClassMapping(min.owner).orElse(null);
-															if (mcm2 != null) {
-																ClassMapping<?, ?> mcm = intToSrg.getClassMapping(mcm2.getDeobfuscatedName()).orElse(null);
-																if (mcm != null) {
-																	MethodMapping mm = mcm.getMethodMapping(min.name, min.desc).orElse(null);
-																	if (mm != null) {
-																		min.name = mm.getDeobfuscatedName();
-																		min.desc = mm.getDeobfuscatedDescriptor();
-																		changed.set(true);
-																	}
-																}
-															}
-														}
-													}
-												}
+					report.count("classes.tree", 1);
+					ClassNode node = new ClassNode();
+					cr.accept(new ClassRemapper(node, remapper), 0);
+					if (node.interfaces != null) {
+						if (node.interfaces.contains("net/fabricmc/api/ModInitializer")) {
+							node.interfaces.remove("net/fabricmc/api/ModInitializer");
+							if (node.visibleAnnotations == null) node.visibleAnnotations = new ArrayList<>();
+							AnnotationNode atMod = new AnnotationNode("Lnet/minecraftforge/fml/common/Mod;");
+							atMod.values = new ArrayList<>();
+							atMod.values.add("value");
+							atMod.values.add(fabricMod.getString("id"));
+							node.visibleAnnotations.add(atMod);
+							String originalSuper = node.superName;
+							node.superName = pkgBin+"/ConvertedModInitializer";
+							for (MethodNode mn : node.methods) {
+								if (mn.name.equals("<init>")) {
+									// correct super() calls
+									for (AbstractInsnNode insn : mn.instructions) {
+										if (insn.getOpcode() == Opcodes.INVOKESPECIAL) {
+											MethodInsnNode min = (MethodInsnNode)insn;
+											if (min.name.equals("<init>") && min.owner.equals(originalSuper)) {
+												min.owner = node.superName;
 											}
 										}
 									}
@@ -545,95 +493,340 @@ public class Forgery {
 							}
 						}
 					}
-				}
-				if (changed.get()) {
+					node.visibleAnnotations = hoist(node.invisibleAnnotations, node.visibleAnnotations);
+					for (MethodNode mn : node.methods) {
+						mn.visibleAnnotations = hoist(mn.invisibleAnnotations, mn.visibleAnnotations);
+					}
+					for (FieldNode fn : node.fields) {
+						fn.visibleAnnotations = hoist(fn.invisibleAnnotations, fn.visibleAnnotations);
+					}
 					ClassWriter cw = new ClassWriter(0);
-					node.accept(cw);
-					return new JarClassEntry(entry.getName(), entry.getTime(), cw.toByteArray());
+					MixinRetargeter retargeter = MixinRetargeter.create(probe, cw, table, ctx.inheritanceProvider(), yarnToInt);
+					node.accept(retargeter != null ? retargeter : cw);
+					return new JarClassEntry(name, entry.getTime(), cw.toByteArray());
 				}
-				return entry;
-			}
 
-			private List<AnnotationNode> hoist(List<AnnotationNode> invisible, List<AnnotationNode> visible, Runnable changed) {
-				if (invisible == null) return visible;
-				List<AnnotationNode> toHoist = new ArrayList<>();
-				for (AnnotationNode ann : invisible) {
-					if (ann.desc.equals("Lnet/minecraftforge/api/distmarker/OnlyIn;")) {
-						toHoist.add(ann);
+				private List<AnnotationNode> hoist(List<AnnotationNode> invisible, List<AnnotationNode> visible) {
+					if (invisible == null) return visible;
+					List<AnnotationNode> toHoist = new ArrayList<>();
+					for (AnnotationNode ann : invisible) {
+						if (ann.desc.equals("Lnet/minecraftforge/api/distmarker/OnlyIn;")) {
+							toHoist.add(ann);
+						}
 					}
-				}
-				if (!toHoist.isEmpty()) {
-					if (visible == null) visible = new ArrayList<>();
-					for (AnnotationNode ann : toHoist) {
-						invisible.remove(ann);
-						visible.add(ann);
+					if (!toHoist.isEmpty()) {
+						if (visible == null) visible = new ArrayList<>();
+						for (AnnotationNode ann : toHoist) {
+							invisible.remove(ann);
+							visible.add(ann);
+						}
 					}
-					changed.run();
+					return visible;
 				}
-				return visible;
-			}
 			
+			};
 		});
-		a.run(Paths.get(args[0]), Paths.get(args[1]));
-		System.out.println("Adding runtime...");
-		FileSystem out = NIOHelper.openZip(Paths.get(args[1]), false);
-		ZipFile runtime = new ZipFile(args[4]);
-		for (ZipEntry ze : (Iterable<ZipEntry>)(Iterable)runtime.entries()::asIterator) {
-			if (ze.getName().startsWith("META-INF")) continue;
-			if (ze.isDirectory()) {
-				Files.createDirectories(out.getPath(ze.getName()));
-				continue;
-			}
-			try (OutputStream os = Files.newOutputStream(out.getPath(ze.getName()))) {
-				runtime.getInputStream(ze).transferTo(os);
+		IncrementalState incremental = null;
+		if (Boolean.getBoolean("forgery.incremental")) {
+			incremental = IncrementalState.open(input, output, mappings.getKey(), mc, pkg, intToSrg == null);
+			a.setEntryCache(incremental);
+		}
+		// the runtime is merged into the output in the same pass, without recompressing it
+		a.merge(runtimePath, name -> !name.startsWith("META-INF"));
+		try {
+			stage = report.stage("transform");
+			a.run(input, output);
+			stage.close();
+			// the completion transformer is only installed for Lorenz, ahead of remapping
+			long[] nanos = a.getTransformerNanos();
+			if (nanos.length > 1) report.time("transform.completion", nanos[0], -1);
+			report.time("transform.remap", nanos[nanos.length-1], -1);
+			report.count("entries.read", a.getEntriesRead());
+			report.count("entries.cached", a.getEntriesCached());
+			report.count("entries.runtime", a.getEntriesMerged());
+			report.count("entries.copied", a.getEntriesCopied());
+			report.count("bytes.read", a.getBytesRead());
+			report.count("bytes.written", a.getBytesWritten());
+			report.count("classpath.bytes.hits", a.getClassProvider().getHits());
+			report.count("classpath.bytes.misses", a.getClassProvider().getMisses());
+			report.count("classpath.info.hits", a.getClassInfoCache().getHits());
+			report.count("classpath.info.misses", a.getClassInfoCache().getMisses());
+			report.count("minecraft.info.hits", mc.getInheritanceProvider().getHits()-mcHits);
+			report.count("minecraft.info.misses", mc.getInheritanceProvider().getMisses()-mcMisses);
+			if (incremental != null) {
+				stage = report.stage("incremental");
+				incremental.save();
+				stage.close();
+				System.out.println("Reused "+incremental.getReused()+" unchanged entries, transformed "+incremental.getTransformed());
 			}
+		} finally {
+			if (incremental != null) incremental.close();
+		}
+		report.count("bytes.output", Files.size(output));
+		if (Boolean.getBoolean("forgery.report")) {
+			Path reportFile = output.resolveSibling(output.getFileName()+".forgery-report.json");
+			report.write(reportFile);
+			System.out.println("Wrote report to "+reportFile);
 		}
-		runtime.close();
-		out.close();
 		System.out.println("Done!");
 	}
 
-	private static void mojifyRecursively(MappingSet offToSrg, MappingSet offToMojClient, MappingSet offToMojServer, MappingSet offToSrgWithMojClasses, ClassMapping<?, ?> cm) {
-		Optional<? extends ClassMapping<?, ?>> mojClass = offToMojClient.getClassMapping(cm.getFullObfuscatedName());
-		String suffix = "";
-		if (!mojClass.isPresent()) {
-			mojClass = offToMojServer.getClassMapping(cm.getFullObfuscatedName());
-			if (!mojClass.isPresent()) {
-				System.out.println("Can't find mapping for "+cm.getFullDeobfuscatedName());
+	public static Mappings loadMappings(String intermediary, String tsrg, String clientMojmap, String serverMojmap) throws IOException {
+		return loadMappings(intermediary, tsrg, clientMojmap, serverMojmap, Boolean.getBoolean("forgery.mappingTable"));
+	}
+
+	/**
+	 * @param tableOnly whether to only keep the {@link MappingTable}, as needed when conversions
+	 * 		run at once with the same mappings
+	 */
+	public static Mappings loadMappings(String intermediary, String tsrg, String clientMojmap, String serverMojmap, boolean tableOnly) throws IOException {
+		boolean mojify = clientMojmap != null;
+		List<Path> inputs = new ArrayList<>();
+		inputs.add(Paths.get(intermediary));
+		inputs.add(Paths.get(tsrg));
+		if (mojify) {
+			inputs.add(Paths.get(clientMojmap));
+			inputs.add(Paths.get(serverMojmap));
+		}
+		Report report = new Report();
+		Report.Stage stage = report.stage("mappings.key");
+		String key = MappingCache.key(mojify ? "mojify" : "srg", inputs.toArray(new Path[0]));
+		stage.close();
+		MappingSet[] sets = null;
+		MappingCache cache = null;
+		if (System.getProperty("forgery.cache") != null) {
+			stage = report.stage("mappings.cache.load");
+			cache = new MappingCache(Paths.get(System.getProperty("forgery.cache")));
+			sets = cache.load(key);
+			stage.close();
+			if (sets != null) {
+				System.out.println("Using cached mappings "+cache.getFile(key));
+				report.count("mappings.cache.hits", 1);
 			} else {
-				suffix = " [server]";
+				report.count("mappings.cache.misses", 1);
+			}
+		}
+		if (sets == null) {
+			sets = buildMappings(intermediary, tsrg, clientMojmap, serverMojmap, report);
+			if (cache != null) {
+				stage = report.stage("mappings.cache.save");
+				// only intToSrg is used after loading
+				cache.save(key, sets[0]);
+				stage.close();
 			}
+		}
+		MappingSet intToSrg = sets[0];
+		intToSrg.createTopLevelClassMapping("net/fabricmc/api/Environment", "net/minecraftforge/api/distmarker/OnlyIn");
+		TopLevelClassMapping envType = intToSrg.createTopLevelClassMapping("net/fabricmc/api/EnvType", "net/minecraftforge/api/distmarker/Dist");
+		envType.createFieldMapping("SERVER", "DEDICATED_SERVER");
+		Mappings mappings;
+		if (tableOnly) {
+			// only keep the table, so the mapping sets can be collected
+			stage = report.stage("mappings.table");
+			mappings = new Mappings(MappingTable.of(intToSrg), key);
+			stage.close();
 		} else {
-			suffix = " [client]";
+			mappings = new Mappings(intToSrg, key);
 		}
-		if (mojClass.isPresent()) {
-			Optional<? extends ClassMapping<?, ?>> srg = offToSrg.getClassMapping(cm.getFullObfuscatedName());
-			System.out.println("obf "+cm.getFullObfuscatedName()+
-					" -> int "+cm.getFullDeobfuscatedName()+
-					" -> srg "+srg.map(ClassMapping::getFullDeobfuscatedName).orElse("?")+
-					" -> moj "+mojClass.get().getFullDeobfuscatedName()+suffix);
-			offToSrgWithMojClasses.getClassMapping(cm.getFullObfuscatedName()).get().setDeobfuscatedName(mojClass.get().getFullDeobfuscatedName());
+		mappings.setLoadReport(report);
+		return mappings;
+	}
+
+	static MappingSet[] buildMappings(String intermediary, String tsrg, String clientMojmap, String serverMojmap) throws IOException {
+		return buildMappings(intermediary, tsrg, clientMojmap, serverMojmap, new Report());
+	}
+
+	static MappingSet[] buildMappings(String intermediary, String tsrg, String clientMojmap, String serverMojmap, Report report) throws IOException {
+		// none of the files depend on each other until mojifying and joining, so read them all at
+		// once
+		ExecutorService exec = Executors.newFixedThreadPool(clientMojmap != null ? 4 : 2);
+		try {
+			Report.Stage stage = report.stage("mappings.read");
+			CompletableFuture<MemoryMappingTree> intermediaryF = supplyAsync(() -> readIntermediary(intermediary), exec);
+			CompletableFuture<MappingSet> offToSrgF = supplyAsync(() -> TSrg2Reader.read(Paths.get(tsrg)), exec);
+			MappingSet offToSrg;
+			MemoryMappingTree tree;
+			if (clientMojmap != null) {
+				CompletableFuture<Map<String, String>> offToMojClientF = supplyAsync(() -> readProGuardClasses(clientMojmap), exec);
+				CompletableFuture<Map<String, String>> offToMojServerF = supplyAsync(() -> readProGuardClasses(serverMojmap), exec);
+				// client names win, as the client has every class the server does and more
+				Map<String, String> offToMoj = join(offToMojServerF);
+				offToMoj.putAll(join(offToMojClientF));
+				offToSrg = join(offToSrgF);
+				tree = join(intermediaryF);
+				stage.close();
+				stage = report.stage("mappings.mojify");
+				mojify(tree, offToSrg, offToMoj);
+				stage.close();
+			} else {
+				offToSrg = join(offToSrgF);
+				tree = join(intermediaryF);
+				stage.close();
+			}
+			stage = report.stage("mappings.join");
+			MappingSet[] sets = new FusedMappingBuilder(tree, offToSrg).build();
+			stage.close();
+//			new TSrgWriter(new FileWriter("merged.tsrg")).write(sets[0]);
+			return sets;
+		} finally {
+			exec.shutdown();
 		}
-		for (ClassMapping<?, ?> child : cm.getInnerClassMappings()) {
-			mojifyRecursively(offToSrg, offToMojClient, offToMojServer, offToSrgWithMojClasses, child);
+	}
+
+	private interface IOSupplier<T> {
+		T get() throws IOException;
+	}
+
+	private static <T> CompletableFuture<T> supplyAsync(IOSupplier<T> supplier, ExecutorService exec) {
+		return CompletableFuture.supplyAsync(() -> {
+			try {
+				return supplier.get();
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}, exec);
+	}
+
+	private static <T> T join(CompletableFuture<T> future) throws IOException {
+		try {
+			return future.join();
+		} catch (CompletionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof UncheckedIOException) throw ((UncheckedIOException)cause).getCause();
+			if (cause instanceof RuntimeException) throw (RuntimeException)cause;
+			if (cause instanceof Error) throw (Error)cause;
+			throw e;
 		}
 	}
-	
-	private static <T extends org.cadixdev.bombe.type.Type> T remap(T ty, InheritanceProvider inh, MappingSet mappings) {
-		if (ty instanceof ObjectType) {
-			ObjectType ot = (ObjectType)ty;
-			Optional<? extends ClassMapping<?, ?>> cm = mappings.getClassMapping(ot.getClassName());
-			if (cm.isPresent()) {
-				cm.get().complete(inh);
-				return (T)new ObjectType(cm.get().getFullDeobfuscatedName());
+
+	/**
+	 * Reads just the class names out of a ProGuard mappings file, without building a mapping set
+	 * for its members.
+	 * @return a map of official names to Mojang names
+	 */
+	private static Map<String, String> readProGuardClasses(String file) throws IOException {
+		Map<String, String> out = new HashMap<>();
+		try (BufferedReader br = new BufferedReader(new FileReader(file))) {
+			String line;
+			while ((line = br.readLine()) != null) {
+				// members are indented; anything else that isn't a comment is a class
+				if (line.isEmpty() || line.charAt(0) == ' ' || line.charAt(0) == '\t' || line.charAt(0) == '#') continue;
+				int arrow = line.indexOf(" -> ");
+				if (arrow == -1 || !line.endsWith(":")) continue;
+				out.put(line.substring(arrow+4, line.length()-1), line.substring(0, arrow).replace('.', '/'));
 			}
 		}
-		if (ty instanceof ArrayType) {
-			return (T)new ArrayType(((ArrayType) ty).getDimCount(), remap(((ArrayType) ty).getComponent(), inh, mappings));
+		return out;
+	}
+
+	static MemoryMappingTree readIntermediary(String intermediary) throws IOException {
+		MemoryMappingTree mappingTree = new MemoryMappingTree();
+		try (BufferedReader br = new BufferedReader(new FileReader(intermediary))) {
+			MappingReader.read(br, mappingTree);
 		}
-		return ty;
+		return mappingTree;
+	}
+
+	/**
+	 * Renames every class in the official-to-SRG mappings that Intermediary knows about to its
+	 * Mojang name, in place.
+	 */
+	private static void mojify(MappingTree intermediary, MappingSet offToSrg, Map<String, String> offToMoj) {
+		boolean verbose = Boolean.getBoolean("forgery.verbose");
+		int offNs = intermediary.getNamespaceId("official");
+		int intNs = intermediary.getNamespaceId("intermediary");
+		int missing = 0;
+		for (MappingTree.ClassMapping cm : intermediary.getClasses()) {
+			String obf = cm.getName(offNs);
+			String moj = offToMoj.get(obf);
+			if (moj == null) {
+				missing++;
+				if (verbose) System.out.println("Can't find mapping for "+cm.getName(intNs));
+				continue;
+			}
+			ClassMapping<?, ?> srg = offToSrg.getClassMapping(obf).orElse(null);
+			if (verbose) {
+				System.out.println("obf "+obf+
+						" -> int "+cm.getName(intNs)+
+						" -> srg "+(srg == null ? "?" : srg.getFullDeobfuscatedName())+
+						" -> moj "+moj);
+			}
+			if (srg != null) srg.setDeobfuscatedName(moj);
+		}
+		if (missing > 0) {
+			System.out.println("Can't find Mojang mappings for "+missing+" classes");
+		}
+	}
+	
+	/**
+	 * Remaps the reference after the first space of every line of a {@code fabAbsRefMap.txt},
+	 * joining the lines as they were.
+	 *
+	 * @param remap returns the remapped reference, or {@code null} to leave it as it is
+	 */
+	static String remapFabAbsRefMap(String str, int threads, Function<String, String> remap) throws IOException {
+		List<String> lines = str.lines().collect(Collectors.toList());
+		return String.join("\n", remapLines(lines, threads, (x, l) -> {
+			int i = l.indexOf(' ');
+			if (i == -1) return l;
+			String remapped = remap.apply(l.substring(i+1));
+			return remapped == null ? l : l.substring(0, i+1)+remapped;
+		}));
+	}
+
+	/**
+	 * Remaps the references in a {@code fabRelRefMap.txt}, which alternates key lines with
+	 * tab-separated lists of references, each after the first space of its entry.
+	 *
+	 * @param remap returns the remapped reference, or {@code null} to leave it as it is
+	 */
+	static String remapFabRelRefMap(String str, int threads, Function<String, String> remap) throws IOException {
+		List<String> lines = str.lines().collect(Collectors.toList());
+		String out = String.join("\n", remapLines(lines, threads, (x, l) -> {
+			if (x % 2 == 0) return l;
+			String[] split = l.split("\t");
+			for (int y=0; y<split.length; y++) {
+				int i = split[y].indexOf(' ');
+				if (i != -1) {
+					String remapped = remap.apply(split[y].substring(i+1));
+					if (remapped != null) {
+						split[y] = split[y].substring(0, i)+" "+remapped;
+					}
+				}
+			}
+			return String.join("\t", split);
+		}));
+		// a lone key has always been written with a line break after it
+		return lines.size() == 1 ? out+"\n" : out;
 	}
 
+	/**
+	 * Applies the given function to every line, given its index, on up to {@code threads} threads.
+	 */
+	private static List<String> remapLines(List<String> lines, int threads, BiFunction<Integer, String, String> fn) throws IOException {
+		if (threads == 1 || lines.size() < 2) {
+			List<String> out = new ArrayList<>(lines.size());
+			for (int i = 0; i < lines.size(); i++) {
+				out.add(fn.apply(i, lines.get(i)));
+			}
+			return out;
+		}
+		ForkJoinPool pool = new ForkJoinPool(threads);
+		try {
+			return pool.submit(() -> IntStream.range(0, lines.size()).parallel()
+					.mapToObj(i -> fn.apply(i, lines.get(i)))
+					.collect(Collectors.toList())).get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException(e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof RuntimeException) throw (RuntimeException)e.getCause();
+			throw new IOException(e.getCause());
+		} finally {
+			pool.shutdown();
+		}
+	}
+	
 	private static void completeRecursively(ClassMapping<?, ?> cm, InheritanceProvider inh) {
 		cm.complete(inh);
 		for (ClassMapping<?, ?> child : cm.getInnerClassMappings()) {
@@ -641,7 +834,36 @@ public class Forgery {
 		}
 	}
 
-	private static String remap(String mapping, String mappingClass, MappingSet intToSrg, Map<String, String> yarnToInt, InheritanceProvider inh) {
+	/**
+	 * Creates the remapper for the mod's classes, which also points ModMenu's API at the adapters
+	 * generated in the given package. Those depend on the package, so they can't live in the
+	 * shared mappings.
+	 */
+	static Remapper createRemapper(MappingSet intToSrg, MappingTable table, InheritanceProvider inh, String pkgBin) {
+		Map<String, String> modMenuClasses = new HashMap<>();
+		modMenuClasses.put("io/github/prospector/modmenu/api/ModMenuApi", pkgBin+"/ModMenuAdapter");
+		modMenuClasses.put("io/github/prospector/modmenu/api/ConfigScreenFactory", pkgBin+"/ConfigScreenFactory");
+		modMenuClasses.put("com/terraformersmc/modmenu/api/ModMenuApi", pkgBin+"/ModMenuAdapter");
+		modMenuClasses.put("com/terraformersmc/modmenu/api/ConfigScreenFactory", pkgBin+"/ConfigScreenFactory");
+		if (intToSrg == null) {
+			return new MappingTableRemapper(table, inh) {
+				@Override
+				public String map(String internalName) {
+					String modMenu = modMenuClasses.get(internalName);
+					return modMenu != null ? modMenu : super.map(internalName);
+				}
+			};
+		}
+		return new LorenzRemapper(intToSrg, inh) {
+			@Override
+			public String map(String internalName) {
+				String modMenu = modMenuClasses.get(internalName);
+				return modMenu != null ? modMenu : super.map(internalName);
+			}
+		};
+	}
+
+	static String remap(String mapping, String mappingClass, MappingTable table, Map<String, String> yarnToInt, InheritanceProvider inh) {
 		if (mapping.equals("<init>") || mapping.equals("<clinit>")) return null;
 		String remapped;
 		int semi = mapping.indexOf(';');
@@ -657,35 +879,23 @@ public class Forgery {
 			int colon = mapping.indexOf(':');
 			if (colon == -1) {
 				clazz = mapping;
-				ClassMapping<?, ?> cm = intToSrg.getClassMapping(clazz).get();
-				cm.complete(inh);
 				System.out.println(mappingClass + " = " + clazz);
 				yarnToInt.put(mappingClass, clazz);
-				clazz = cm.getFullDeobfuscatedName();
-				remapped = clazz;
+				remapped = mapClass(table, clazz);
 			} else {
 				String name = mapping.substring(semi+1, colon);
 				String type = mapping.substring(colon+1);
+				int fm;
 				if (clazz != null) {
-					ClassMapping<?, ?> cm = intToSrg.getClassMapping(clazz).get();
-					cm.complete(inh);
-					FieldMapping fm = cm.getFieldMapping(FieldSignature.of(name, type)).orElse(null);
-					if (fm != null) {
-						name = fm.getDeobfuscatedName();
-						type = fm.getDeobfuscatedSignature().getType().get().toString();
-					}
-					clazz = cm.getFullDeobfuscatedName();
+					fm = table.getField(inh, clazz, name, type);
+					clazz = mapClass(table, clazz);
 				} else {
-					FieldSignature sig = FieldSignature.of(name, type);
-					for (TopLevelClassMapping cm : intToSrg.getTopLevelClassMappings()) {
-						cm.complete(inh);
-						FieldMapping fm = getTopOrInnerMapping(inh, cm, m->m.getFieldMapping(sig));
-						if (fm != null) {
-							name = fm.getDeobfuscatedName();
-							type = fm.getDeobfuscatedSignature().getType().get().toString();
-							break;
-						}
-					}
+					fm = table.findMember(name, type);
+					if (fm == -1) fm = table.findMember(name, null);
+				}
+				if (fm != -1) {
+					name = table.getDeobfName(fm);
+					type = table.getDeobfDesc(fm) == null ? table.mapDesc(type) : table.getDeobfDesc(fm);
 				}
 				remapped = (clazz == null ? "" : "L"+clazz+";")+name+":"+type;
 			}
@@ -693,40 +903,26 @@ public class Forgery {
 			String name = mapping.substring(semi+1, paren);
 			String desc = mapping.substring(paren);
 			if (name.equals("<init>") || name.equals("<clinit>")) {
-				MethodDescriptor parsed = new MethodDescriptorReader(desc).read();
-				List<FieldType> newTypes = new ArrayList<>();
-				org.cadixdev.bombe.type.Type newReturnType = remap(parsed.getReturnType(), inh, intToSrg);
-				for (FieldType ft : parsed.getParamTypes()) {
-					newTypes.add(remap(ft, inh, intToSrg));
-				}
-				desc = new MethodDescriptor(newTypes, newReturnType).toString();
+				desc = table.mapDesc(desc);
 				if (clazz != null) {
-					ClassMapping<?, ?> cm = intToSrg.getClassMapping(clazz).get();
-					cm.complete(inh);
-					clazz = cm.getFullDeobfuscatedName();
+					clazz = mapClass(table, clazz);
 				}
 			} else if (clazz != null) {
-				ClassMapping<?, ?> cm = intToSrg.getClassMapping(clazz).orElse(null);
-				if (cm != null) {
-					cm.complete(inh);
-					MethodMapping mm = cm.getMethodMapping(name, desc).orElse(null);
-					if (mm != null) {
-						name = mm.getDeobfuscatedName();
-						desc = mm.getDeobfuscatedDescriptor();
+				if (table.mapClass(clazz) != null) {
+					int mm = table.getMethod(inh, clazz, name, desc);
+					if (mm != -1) {
+						name = table.getDeobfName(mm);
+						desc = table.getDeobfDesc(mm);
 					}
-					clazz = cm.getFullDeobfuscatedName();
+					clazz = table.mapClass(clazz);
 				} else {
 					System.err.println("Class mapping for "+clazz+" not found!");
 				}
 			} else {
-				MethodSignature sig = MethodSignature.of(name, desc);
-				for (TopLevelClassMapping cm : intToSrg.getTopLevelClassMappings()) {
-					MethodMapping mm = getTopOrInnerMapping(inh, cm, m->m.getMethodMapping(sig));
-					if (mm != null) {
-						name = mm.getDeobfuscatedName();
-						desc = mm.getDeobfuscatedDescriptor();
-						break;
-					}
+				int mm = table.findMember(name, desc);
+				if (mm != -1) {
+					name = table.getDeobfName(mm);
+					desc = table.getDeobfDesc(mm);
 				}
 			}
 			remapped = (clazz == null ? "" : "L"+clazz+";")+name+desc;
@@ -736,26 +932,10 @@ public class Forgery {
 		}
 		return remapped;
 	}
-	public static<T> T getTopOrInnerMapping(InheritanceProvider inh, TopLevelClassMapping cm, Function<ClassMapping<?, ?>, Optional<T>> get) {
-		cm.complete(inh);
-		Optional<T> mm = get.apply(cm);
-		if (!mm.isEmpty()) return mm.get();
-		Set<InnerClassMapping> dejavu = new HashSet<>();
-		Collection<InnerClassMapping> icms1 = cm.getInnerClassMappings();
-		List<InnerClassMapping> icms2;
-		while (!icms1.isEmpty()) {
-			icms2 = new ArrayList<>();
-			for (InnerClassMapping icm : icms1) {
-				if (dejavu.add(icm)) {
-					icm.complete(inh);
-					mm = get.apply(icm);
-					if (!mm.isEmpty()) return mm.get();
-					icms2.addAll(icm.getInnerClassMappings());
-				}
-			}
-			icms1 = icms2;
-		}
-		return null;
+
+	private static String mapClass(MappingTable table, String clazz) {
+		String mapped = table.mapClass(clazz);
+		return mapped == null ? clazz : mapped;
 	}
 	
 }
@@ -0,0 +1,319 @@
+package com.unascribed.forgery;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.PosixFilePermission;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A resident Forgery process that keeps loaded mappings and Minecraft jars warm between
+ * conversions. Requests are single tab-separated lines on a loopback socket, starting with the
+ * token in {@code ~/.forgery-daemon-token} (created by the daemon, readable only by its owner) so
+ * other local users can't make it read and write files as its owner:
+ * <ul>
+ * <li>{@code convert}, followed by the same arguments as a normal invocation
+ * 		(input, output, mappings, runtime, Minecraft jar, package, and for 1.18 the two official
+ * 		mappings), answered by {@code ok <millis>} or {@code error <message>}</li>
+ * <li>{@code ping}, answered by {@code pong}</li>
+ * <li>{@code stop}, answered by {@code bye}, after which the daemon exits</li>
+ * </ul>
+ * Clients that don't send their request within ten seconds are dropped. Conversions run on
+ * {@code forgery.batchThreads} threads (default 1), and the others are answered while they run.
+ * Loaded environments that haven't been used for {@code forgery.daemonIdleMinutes} (default 30)
+ * are evicted.
+ */
+public class ForgeryDaemon {
+
+	private static class Loaded {
+		final String name;
+		// set while holding this object's lock, by whichever job needs them first
+		Mappings mappings;
+		MinecraftJar mc;
+		// guarded by the daemon's map of loaded environments
+		long lastUsed = System.nanoTime();
+		int active = 0;
+
+		Loaded(String name) {
+			this.name = name;
+		}
+	}
+
+	private static final Path TOKEN_FILE = Paths.get(System.getProperty("user.home"), ".forgery-daemon-token");
+	private static final int READ_TIMEOUT_MILLIS = 10_000;
+
+	private final int port;
+	private final long idleNanos = TimeUnit.MINUTES.toNanos(Long.getLong("forgery.daemonIdleMinutes", 30));
+	private final Map<String, Loaded> loaded = new HashMap<>();
+	private volatile boolean running = true;
+	private byte[] token;
+
+	public ForgeryDaemon(int port) {
+		this.port = port;
+	}
+
+	public void run() throws IOException {
+		token = createToken().getBytes(StandardCharsets.UTF_8);
+		// requests are read on their own threads, which the read timeout keeps short-lived, so a
+		// slow client or a long conversion doesn't hold up pings, stops or other clients
+		ExecutorService handlers = Executors.newCachedThreadPool();
+		ExecutorService conversions = Executors.newFixedThreadPool(Integer.getInteger("forgery.batchThreads", 1));
+		ScheduledExecutorService evictor = Executors.newSingleThreadScheduledExecutor();
+		evictor.scheduleWithFixedDelay(this::evictIdle, 1, 1, TimeUnit.MINUTES);
+		try (ServerSocket server = new ServerSocket(port, 50, InetAddress.getLoopbackAddress())) {
+			System.out.println("Forgery daemon listening on "+server.getLocalSocketAddress());
+			server.setSoTimeout(1000);
+			while (running) {
+				Socket socket;
+				try {
+					socket = server.accept();
+				} catch (SocketTimeoutException e) {
+					continue;
+				}
+				handlers.execute(() -> handle(socket, conversions));
+			}
+		} finally {
+			evictor.shutdownNow();
+			try {
+				// handlers may still be queueing conversions
+				handlers.shutdown();
+				handlers.awaitTermination(1, TimeUnit.MINUTES);
+				conversions.shutdown();
+				conversions.awaitTermination(1, TimeUnit.HOURS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			synchronized (loaded) {
+				for (Loaded l : loaded.values()) {
+					if (l.mc != null) l.mc.close();
+				}
+				loaded.clear();
+			}
+		}
+	}
+
+	private void handle(Socket socket, ExecutorService conversions) {
+		boolean queued = false;
+		try {
+			socket.setSoTimeout(READ_TIMEOUT_MILLIS);
+			BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+			PrintWriter out = new PrintWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8));
+			String line = in.readLine();
+			if (line == null) return;
+			String[] split = line.split("\t");
+			if (!MessageDigest.isEqual(token, split[0].getBytes(StandardCharsets.UTF_8))) {
+				respond(out, "error bad token");
+				return;
+			}
+			split = Arrays.copyOfRange(split, 1, split.length);
+			if (split.length == 0) {
+				respond(out, "error empty request");
+				return;
+			}
+			switch (split[0]) {
+				case "ping":
+					respond(out, "pong");
+					break;
+				case "stop":
+					running = false;
+					respond(out, "bye");
+					break;
+				case "convert": {
+					String[] args = Arrays.copyOfRange(split, 1, split.length);
+					// the conversion answers and closes the socket once it gets its turn
+					conversions.execute(() -> {
+						try {
+							respond(out, convert(args));
+						} finally {
+							close(socket);
+						}
+					});
+					queued = true;
+					break;
+				}
+				default:
+					respond(out, "error unknown request "+split[0]);
+			}
+		} catch (IOException e) {
+			System.err.println("Lost daemon client: "+e);
+		} finally {
+			if (!queued) close(socket);
+		}
+	}
+
+	private static void close(Socket socket) {
+		try {
+			socket.close();
+		} catch (IOException e) {
+			System.err.println("Failed to close daemon client: "+e);
+		}
+	}
+
+	private static void respond(PrintWriter out, String response) {
+		out.println(response);
+		out.flush();
+	}
+
+	private String convert(String[] args) {
+		if (args.length != 7 && args.length != 9) {
+			return "error expected 7 or 9 arguments, got "+args.length;
+		}
+		long start = System.nanoTime();
+		Loaded l = null;
+		try {
+			l = acquire(args[2], args[3], args[5], args.length == 9 ? args[7] : null, args.length == 9 ? args[8] : null);
+			Forgery.convert(Paths.get(args[0]), Paths.get(args[1]), Paths.get(args[4]), args[6], l.mappings, l.mc);
+			return "ok "+TimeUnit.NANOSECONDS.toMillis(System.nanoTime()-start);
+		} catch (Throwable t) {
+			t.printStackTrace();
+			return "error "+String.valueOf(t).replace('\n', ' ');
+		} finally {
+			if (l != null) release(l);
+		}
+	}
+
+	private Loaded acquire(String intermediary, String tsrg, String mcJar, String clientMojmap, String serverMojmap) throws IOException {
+		StringBuilder key = new StringBuilder();
+		for (String s : new String[] { intermediary, tsrg, mcJar, clientMojmap, serverMojmap }) {
+			if (s == null) continue;
+			Path p = Paths.get(s).toAbsolutePath();
+			key.append(p).append('@').append(Files.getLastModifiedTime(p).toMillis()).append('+').append(Files.size(p)).append('\0');
+		}
+		// two builds asking for the same version at once share one load rather than race two,
+		// but other versions don't wait for it
+		Loaded l;
+		synchronized (loaded) {
+			l = loaded.computeIfAbsent(key.toString(), k -> new Loaded(mcJar));
+			l.active++;
+			l.lastUsed = System.nanoTime();
+		}
+		try {
+			synchronized (l) {
+				if (l.mappings == null) {
+					System.out.println("Loading mappings for "+mcJar+"...");
+					// jobs running at once share the mappings, which Lorenz can't do safely
+					Mappings mappings = Forgery.loadMappings(intermediary, tsrg, clientMojmap, serverMojmap,
+							Integer.getInteger("forgery.batchThreads", 1) > 1 || Boolean.getBoolean("forgery.mappingTable"));
+					l.mc = new MinecraftJar(Paths.get(mcJar));
+					l.mappings = mappings;
+				}
+			}
+		} catch (IOException | RuntimeException | Error e) {
+			release(l);
+			synchronized (loaded) {
+				if (l.active == 0 && l.mappings == null) loaded.remove(key.toString(), l);
+			}
+			throw e;
+		}
+		return l;
+	}
+
+	private void release(Loaded l) {
+		synchronized (loaded) {
+			l.active--;
+			l.lastUsed = System.nanoTime();
+		}
+	}
+
+	private void evictIdle() {
+		synchronized (loaded) {
+			long now = System.nanoTime();
+			Iterator<Loaded> iter = loaded.values().iterator();
+			while (iter.hasNext()) {
+				Loaded l = iter.next();
+				if (l.active == 0 && now-l.lastUsed > idleNanos) {
+					System.out.println("Evicting idle mappings for "+l.name);
+					iter.remove();
+					if (l.mc == null) continue;
+					try {
+						l.mc.close();
+					} catch (IOException e) {
+						System.err.println("Failed to close Minecraft jar: "+e);
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Reads the token shared with the daemon, creating it readable only by the current user if
+	 * there is none yet.
+	 */
+	private static String createToken() throws IOException {
+		if (!Files.exists(TOKEN_FILE)) {
+			byte[] bytes = new byte[32];
+			new SecureRandom().nextBytes(bytes);
+			StringBuilder sb = new StringBuilder();
+			for (byte b : bytes) {
+				sb.append(String.format("%02x", b & 0xFF));
+			}
+			// temporary files are only readable by their owner, and linking it into place makes
+			// sure nothing sees a half-written token or replaces another daemon's
+			Path tmp = Files.createTempFile(TOKEN_FILE.toAbsolutePath().getParent(), ".forgery-daemon-token", null);
+			try {
+				Files.write(tmp, sb.toString().getBytes(StandardCharsets.UTF_8));
+				Files.createLink(TOKEN_FILE, tmp);
+			} catch (FileAlreadyExistsException e) {
+				// another daemon got there first
+			} finally {
+				Files.deleteIfExists(tmp);
+			}
+		}
+		return readToken();
+	}
+
+	private static String readToken() throws IOException {
+		if (TOKEN_FILE.getFileSystem().supportedFileAttributeViews().contains("posix")) {
+			Set<PosixFilePermission> perms = Files.getPosixFilePermissions(TOKEN_FILE);
+			perms.retainAll(EnumSet.of(PosixFilePermission.GROUP_READ, PosixFilePermission.GROUP_WRITE,
+					PosixFilePermission.OTHERS_READ, PosixFilePermission.OTHERS_WRITE));
+			if (!perms.isEmpty()) {
+				throw new IOException(TOKEN_FILE+" must only be readable by its owner");
+			}
+		}
+		String token = new String(Files.readAllBytes(TOKEN_FILE), StandardCharsets.UTF_8).trim();
+		if (token.isEmpty()) throw new IOException(TOKEN_FILE+" is empty");
+		return token;
+	}
+
+	/**
+	 * Sends a single request line to a daemon on the given port and returns its response.
+	 */
+	public static String submit(int port, String... request) throws IOException {
+		String token = readToken();
+		try (Socket s = new Socket(InetAddress.getLoopbackAddress(), port);
+				BufferedReader in = new BufferedReader(new InputStreamReader(s.getInputStream(), StandardCharsets.UTF_8))) {
+			Writer out = new OutputStreamWriter(s.getOutputStream(), StandardCharsets.UTF_8);
+			out.write(token);
+			out.write('\t');
+			out.write(String.join("\t", request));
+			out.write('\n');
+			out.flush();
+			return in.readLine();
+		}
+	}
+
+}
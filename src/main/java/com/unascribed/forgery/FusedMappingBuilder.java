@@ -0,0 +1,119 @@
+package com.unascribed.forgery;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import net.fabricmc.mappingio.tree.MappingTree;
+import org.cadixdev.bombe.type.signature.FieldSignature;
+import org.cadixdev.bombe.type.signature.MethodSignature;
+import org.cadixdev.lorenz.MappingSet;
+import org.cadixdev.lorenz.model.ClassMapping;
+import org.cadixdev.lorenz.model.FieldMapping;
+import org.cadixdev.lorenz.model.MethodMapping;
+import org.cadixdev.lorenz.model.MethodParameterMapping;
+
+/**
+ * Builds the Intermediary-to-SRG mappings and their reverse in one pass, by joining the
+ * Intermediary tree with the official-to-SRG mappings on official names. This replaces reversing
+ * the Intermediary mappings, merging them with the SRG mappings and reversing the result, and
+ * never holds more than the inputs and the two outputs. Both outputs share their name strings.
+ * <p>
+ * Anything the SRG mappings don't name keeps its official name, as with a loose merge. Classes
+ * only present in the SRG mappings are left out, as nothing can refer to them by an Intermediary
+ * name.
+ */
+public class FusedMappingBuilder {
+
+	private final MappingTree intermediary;
+	private final MappingSet offToSrg;
+	private final int offNs;
+	private final int intNs;
+
+	private final Map<String, String> offToSrgClasses = new HashMap<>();
+	private final Map<String, String> srgDescs = new HashMap<>();
+
+	public FusedMappingBuilder(MappingTree intermediary, MappingSet offToSrg) {
+		this.intermediary = intermediary;
+		this.offToSrg = offToSrg;
+		this.offNs = intermediary.getNamespaceId("official");
+		this.intNs = intermediary.getNamespaceId("intermediary");
+	}
+
+	/**
+	 * @return intToSrg and srgToInt, in that order
+	 */
+	public MappingSet[] build() {
+		MappingSet intToSrg = MappingSet.create();
+		MappingSet srgToInt = MappingSet.create();
+		// class names first, so member descriptors can be translated without going back to the
+		// mapping sets for every type in them
+		for (MappingTree.ClassMapping cm : intermediary.getClasses()) {
+			String off = cm.getName(offNs);
+			offToSrgClasses.put(off, offToSrg.getClassMapping(off).map(ClassMapping::getFullDeobfuscatedName).orElse(off));
+		}
+		for (MappingTree.ClassMapping cm : intermediary.getClasses()) {
+			String off = cm.getName(offNs);
+			String intName = cm.getName(intNs);
+			String srgName = offToSrgClasses.get(off);
+			ClassMapping<?, ?> srgCm = offToSrg.getClassMapping(off).orElse(null);
+			ClassMapping<?, ?> intToSrgCm = intToSrg.getOrCreateClassMapping(intName);
+			intToSrgCm.setDeobfuscatedName(srgName);
+			ClassMapping<?, ?> srgToIntCm = srgToInt.getOrCreateClassMapping(srgName);
+			srgToIntCm.setDeobfuscatedName(intName);
+			for (MappingTree.FieldMapping fm : cm.getFields()) {
+				String offField = fm.getName(offNs);
+				String intField = fm.getName(intNs);
+				String srgField = srgCm == null ? offField : srgCm.getFieldMapping(offField).map(FieldMapping::getDeobfuscatedName).orElse(offField);
+				String offDesc = fm.getDesc(offNs);
+				if (offDesc == null) {
+					intToSrgCm.createFieldMapping(intField, srgField);
+					srgToIntCm.createFieldMapping(srgField, intField);
+				} else {
+					intToSrgCm.createFieldMapping(FieldSignature.of(intField, fm.getDesc(intNs)), srgField);
+					srgToIntCm.createFieldMapping(FieldSignature.of(srgField, toSrg(offDesc)), intField);
+				}
+			}
+			for (MappingTree.MethodMapping mm : cm.getMethods()) {
+				String offMethod = mm.getName(offNs);
+				String offDesc = mm.getDesc(offNs);
+				String intMethod = mm.getName(intNs);
+				MethodMapping srgMm = srgCm == null ? null : srgCm.getMethodMapping(offMethod, offDesc).orElse(null);
+				String srgMethod = srgMm == null ? offMethod : srgMm.getDeobfuscatedName();
+				MethodMapping intToSrgMm = intToSrgCm.createMethodMapping(MethodSignature.of(intMethod, mm.getDesc(intNs)), srgMethod);
+				srgToIntCm.createMethodMapping(MethodSignature.of(srgMethod, toSrg(offDesc)), intMethod);
+				if (srgMm != null) {
+					for (MethodParameterMapping pm : srgMm.getParameterMappings()) {
+						intToSrgMm.createParameterMapping(pm.getIndex(), pm.getDeobfuscatedName());
+					}
+				}
+			}
+		}
+		return new MappingSet[] { intToSrg, srgToInt };
+	}
+
+	/**
+	 * Translates the class names in an official descriptor to SRG names.
+	 */
+	private String toSrg(String desc) {
+		String cached = srgDescs.get(desc);
+		if (cached != null) return cached;
+		StringBuilder sb = null;
+		int last = 0;
+		for (int i = 0; i < desc.length(); i++) {
+			if (desc.charAt(i) != 'L') continue;
+			int semi = desc.indexOf(';', i);
+			String name = desc.substring(i+1, semi);
+			String srg = offToSrgClasses.get(name);
+			if (srg != null && !srg.equals(name)) {
+				if (sb == null) sb = new StringBuilder(desc.length()+16);
+				sb.append(desc, last, i+1).append(srg);
+				last = semi;
+			}
+			i = semi;
+		}
+		String result = sb == null ? desc : sb.append(desc, last, desc.length()).toString();
+		srgDescs.put(desc, result);
+		return result;
+	}
+
+}
@@ -0,0 +1,193 @@
+package com.unascribed.forgery;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import org.cadixdev.atlas.AtlasWithNewASM;
+import org.cadixdev.bombe.jar.AbstractJarEntry;
+import org.cadixdev.bombe.jar.JarResourceEntry;
+import org.objectweb.asm.ClassReader;
+
+/**
+ * Remembers, next to a conversion's output, a hash of every input entry and the name of the
+ * output entry it became, so the next conversion of the same mod can copy unchanged entries out
+ * of the previous output instead of transforming them again.
+ * <p>
+ * Everything an entry's transformation can depend on besides its own bytes (the mappings, the
+ * Minecraft jar, the package name, every resource in the mod, and the mod's class hierarchy)
+ * goes into a single key. If that key changes, nothing is reused.
+ */
+public class IncrementalState implements AtlasWithNewASM.EntryCache, Closeable {
+
+	private static final String HEADER = "forgery-incremental 1";
+	private static final String MANIFEST = "META-INF/MANIFEST.MF";
+
+	private final Path stateFile;
+	private final String key;
+	private final Map<String, String[]> previous;
+	private final Path previousOutputPath;
+	private final ZipFile previousOutput;
+	private final Map<String, String> hashes = new ConcurrentHashMap<>();
+	private final Map<String, String> results = new ConcurrentHashMap<>();
+	private final AtomicInteger reused = new AtomicInteger();
+	private final AtomicInteger transformed = new AtomicInteger();
+
+	private IncrementalState(Path stateFile, String key, Map<String, String[]> previous, Path previousOutputPath, ZipFile previousOutput) {
+		this.stateFile = stateFile;
+		this.key = key;
+		this.previous = previous;
+		this.previousOutputPath = previousOutputPath;
+		this.previousOutput = previousOutput;
+	}
+
+	/**
+	 * Loads the state left by the last conversion to the given output, if it is still valid,
+	 * and moves the previous output aside so it can be read while the new one is written.
+	 *
+	 * @param mappingTable whether classes are remapped through the {@link MappingTable} rather
+	 * 		than Lorenz, as the two don't produce identical output
+	 */
+	public static IncrementalState open(Path input, Path output, String mappingsKey, MinecraftJar mc, String pkg, boolean mappingTable) throws IOException {
+		Path stateFile = output.resolveSibling(output.getFileName()+".forgery-state");
+		String key = computeKey(input, mappingsKey, mc, pkg, mappingTable);
+		Map<String, String[]> previous = null;
+		Path previousOutputPath = null;
+		ZipFile previousOutput = null;
+		if (Files.isRegularFile(stateFile) && Files.isRegularFile(output)) {
+			List<String> lines = Files.readAllLines(stateFile, StandardCharsets.UTF_8);
+			if (lines.size() >= 2 && HEADER.equals(lines.get(0)) && key.equals(lines.get(1))) {
+				previous = new HashMap<>();
+				for (String line : lines.subList(2, lines.size())) {
+					String[] split = line.split("\t", -1);
+					previous.put(split[0], new String[] { split[1], split[2].isEmpty() ? null : split[2] });
+				}
+				previousOutputPath = output.resolveSibling(output.getFileName()+".prev");
+				Files.move(output, previousOutputPath, StandardCopyOption.REPLACE_EXISTING);
+				previousOutput = new ZipFile(previousOutputPath.toFile());
+			}
+		}
+		// state left over from a conversion that doesn't finish must not be trusted
+		Files.deleteIfExists(stateFile);
+		return new IncrementalState(stateFile, key, previous, previousOutputPath, previousOutput);
+	}
+
+	private static String computeKey(Path input, String mappingsKey, MinecraftJar mc, String pkg, boolean mappingTable) throws IOException {
+		MessageDigest md = sha1();
+		md.update((HEADER+"\0"+mappingsKey+"\0"+mc.getPath().toAbsolutePath()+"\0"+Files.size(mc.getPath())+"\0"
+				+Files.getLastModifiedTime(mc.getPath()).toMillis()+"\0"+pkg+"\0"
+				+(mappingTable ? "table" : "lorenz")+"\0").getBytes(StandardCharsets.UTF_8));
+		Map<String, String> entries = new TreeMap<>();
+		try (ZipFile zip = new ZipFile(input.toFile())) {
+			for (ZipEntry ze : Collections.list(zip.entries())) {
+				if (ze.isDirectory()) continue;
+				byte[] bys;
+				try (InputStream in = zip.getInputStream(ze)) {
+					bys = in.readAllBytes();
+				}
+				if (ze.getName().endsWith(".class")) {
+					ClassReader cr = new ClassReader(bys);
+					entries.put(ze.getName(), cr.getSuperName()+" "+String.join(" ", cr.getInterfaces()));
+				} else {
+					entries.put(ze.getName(), hash(bys));
+				}
+			}
+		}
+		for (Map.Entry<String, String> en : entries.entrySet()) {
+			md.update((en.getKey()+"\0"+en.getValue()+"\0").getBytes(StandardCharsets.UTF_8));
+		}
+		return MappingCache.hex(md.digest());
+	}
+
+	@Override
+	public AbstractJarEntry get(String name, byte[] contents) throws IOException {
+		// the manifest carries a timestamp, and is cheap to redo anyway
+		if (name.equals(MANIFEST)) return null;
+		String hash = hash(contents);
+		hashes.put(name, hash);
+		if (previous == null) return null;
+		String[] prev = previous.get(name);
+		if (prev == null || prev[1] == null || !prev[0].equals(hash)) return null;
+		ZipEntry ze = previousOutput.getEntry(prev[1]);
+		if (ze == null) return null;
+		byte[] bys;
+		try (InputStream in = previousOutput.getInputStream(ze)) {
+			bys = in.readAllBytes();
+		}
+		results.put(name, hash+"\t"+prev[1]);
+		reused.incrementAndGet();
+		return new JarResourceEntry(prev[1], ze.getTime(), bys);
+	}
+
+	@Override
+	public void put(String name, byte[] contents, AbstractJarEntry result) {
+		if (name.equals(MANIFEST)) return;
+		results.put(name, hashes.get(name)+"\t"+(result == null ? "" : result.getName()));
+		transformed.incrementAndGet();
+	}
+
+	public int getReused() {
+		return reused.get();
+	}
+
+	public int getTransformed() {
+		return transformed.get();
+	}
+
+	/**
+	 * Writes the state for the conversion that just finished, for the next one to use.
+	 */
+	public void save() throws IOException {
+		Path tmp = stateFile.resolveSibling(stateFile.getFileName()+".tmp");
+		try (BufferedWriter w = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+			w.write(HEADER);
+			w.write('\n');
+			w.write(key);
+			w.write('\n');
+			for (Map.Entry<String, String> en : new TreeMap<>(results).entrySet()) {
+				w.write(en.getKey());
+				w.write('\t');
+				w.write(en.getValue());
+				w.write('\n');
+			}
+		}
+		Files.move(tmp, stateFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (previousOutput != null) {
+			previousOutput.close();
+			Files.deleteIfExists(previousOutputPath);
+		}
+	}
+
+	private static String hash(byte[] bys) {
+		return MappingCache.hex(sha1().digest(bys));
+	}
+
+	private static MessageDigest sha1() {
+		try {
+			return MessageDigest.getInstance("SHA-1");
+		} catch (NoSuchAlgorithmException e) {
+			throw new AssertionError(e);
+		}
+	}
+
+}
@@ -0,0 +1,268 @@
+package com.unascribed.forgery;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.cadixdev.bombe.type.signature.FieldSignature;
+import org.cadixdev.bombe.type.signature.MethodSignature;
+import org.cadixdev.lorenz.MappingSet;
+import org.cadixdev.lorenz.model.ClassMapping;
+import org.cadixdev.lorenz.model.FieldMapping;
+import org.cadixdev.lorenz.model.InnerClassMapping;
+import org.cadixdev.lorenz.model.MethodMapping;
+import org.cadixdev.lorenz.model.MethodParameterMapping;
+import org.cadixdev.lorenz.model.TopLevelClassMapping;
+
+/**
+ * On-disk cache of fully built {@link MappingSet}s, keyed by a hash of the files they were
+ * built from. Entries are a string pool followed by the class tree, written with varints and
+ * read back through a memory mapping. Extension data (such as {@link TSrg2Reader#ID}) is not
+ * preserved.
+ */
+public class MappingCache {
+
+	private static final int MAGIC = 0x46474D43; // FGMC
+	private static final int VERSION = 2;
+
+	private final Path dir;
+
+	public MappingCache(Path dir) {
+		this.dir = dir;
+	}
+
+	/**
+	 * Computes a cache key covering the contents of every given file, in order, and the given
+	 * mode string. Any change to an input file yields a different key.
+	 */
+	public static String key(String mode, Path... inputs) throws IOException {
+		MessageDigest md;
+		try {
+			md = MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new AssertionError(e);
+		}
+		md.update((VERSION+"\0"+mode+"\0").getBytes(StandardCharsets.UTF_8));
+		byte[] buf = new byte[65536];
+		for (Path p : inputs) {
+			md.update(ByteBuffer.allocate(8).putLong(Files.size(p)).array());
+			try (InputStream in = Files.newInputStream(p)) {
+				int n;
+				while ((n = in.read(buf)) != -1) {
+					md.update(buf, 0, n);
+				}
+			}
+		}
+		return hex(md.digest());
+	}
+
+	static String hex(byte[] bys) {
+		StringBuilder sb = new StringBuilder(bys.length*2);
+		for (byte b : bys) {
+			sb.append(Character.forDigit((b >> 4) & 0xF, 16));
+			sb.append(Character.forDigit(b & 0xF, 16));
+		}
+		return sb.toString();
+	}
+
+	public Path getFile(String key) {
+		return dir.resolve(key+".fgmap");
+	}
+
+	/**
+	 * @return the mapping sets saved under the given key, in the order they were saved, or
+	 * 		{@code null} if there is no usable cache entry
+	 */
+	public MappingSet[] load(String key) {
+		Path file = getFile(key);
+		if (!Files.isRegularFile(file)) return null;
+		try (FileChannel fc = FileChannel.open(file)) {
+			MappedByteBuffer buf = fc.map(FileChannel.MapMode.READ_ONLY, 0, fc.size());
+			if (buf.getInt() != MAGIC || buf.getInt() != VERSION) return null;
+			if (!key.equals(readString(buf))) return null;
+			String[] pool = new String[readVarInt(buf)];
+			for (int i = 0; i < pool.length; i++) {
+				pool[i] = readString(buf);
+			}
+			MappingSet[] sets = new MappingSet[readVarInt(buf)];
+			for (int i = 0; i < sets.length; i++) {
+				MappingSet set = MappingSet.create();
+				int classes = readVarInt(buf);
+				for (int j = 0; j < classes; j++) {
+					TopLevelClassMapping cm = set.createTopLevelClassMapping(pool[readVarInt(buf)], pool[readVarInt(buf)]);
+					readClassBody(buf, pool, cm);
+				}
+				sets[i] = set;
+			}
+			return sets;
+		} catch (IOException | RuntimeException e) {
+			System.err.println("Ignoring unreadable mapping cache "+file+": "+e);
+			return null;
+		}
+	}
+
+	public void save(String key, MappingSet... sets) throws IOException {
+		Map<String, Integer> pool = new HashMap<>();
+		List<String> poolList = new ArrayList<>();
+		for (MappingSet set : sets) {
+			for (TopLevelClassMapping cm : set.getTopLevelClassMappings()) {
+				collectStrings(cm, pool, poolList);
+			}
+		}
+		Files.createDirectories(dir);
+		Path file = getFile(key);
+		Path tmp = Files.createTempFile(dir, key, ".tmp");
+		try {
+			try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp), 65536))) {
+				out.writeInt(MAGIC);
+				out.writeInt(VERSION);
+				writeString(out, key);
+				writeVarInt(out, poolList.size());
+				for (String s : poolList) {
+					writeString(out, s);
+				}
+				writeVarInt(out, sets.length);
+				for (MappingSet set : sets) {
+					Collection<TopLevelClassMapping> classes = set.getTopLevelClassMappings();
+					writeVarInt(out, classes.size());
+					for (TopLevelClassMapping cm : classes) {
+						writeClass(out, pool, cm);
+					}
+				}
+			}
+			Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			Files.deleteIfExists(tmp);
+		}
+	}
+
+	private static void collectStrings(ClassMapping<?, ?> cm, Map<String, Integer> pool, List<String> poolList) {
+		intern(cm.getObfuscatedName(), pool, poolList);
+		intern(cm.getDeobfuscatedName(), pool, poolList);
+		for (FieldMapping fm : cm.getFieldMappings()) {
+			intern(fm.getObfuscatedName(), pool, poolList);
+			intern(fm.getDeobfuscatedName(), pool, poolList);
+			fm.getSignature().getType().ifPresent(t -> intern(t.toString(), pool, poolList));
+		}
+		for (MethodMapping mm : cm.getMethodMappings()) {
+			intern(mm.getObfuscatedName(), pool, poolList);
+			intern(mm.getObfuscatedDescriptor(), pool, poolList);
+			intern(mm.getDeobfuscatedName(), pool, poolList);
+			for (MethodParameterMapping pm : mm.getParameterMappings()) {
+				intern(pm.getDeobfuscatedName(), pool, poolList);
+			}
+		}
+		for (InnerClassMapping icm : cm.getInnerClassMappings()) {
+			collectStrings(icm, pool, poolList);
+		}
+	}
+
+	private static void intern(String s, Map<String, Integer> pool, List<String> poolList) {
+		if (!pool.containsKey(s)) {
+			pool.put(s, poolList.size());
+			poolList.add(s);
+		}
+	}
+
+	private static void writeClass(DataOutputStream out, Map<String, Integer> pool, ClassMapping<?, ?> cm) throws IOException {
+		writeVarInt(out, pool.get(cm.getObfuscatedName()));
+		writeVarInt(out, pool.get(cm.getDeobfuscatedName()));
+		Collection<FieldMapping> fields = cm.getFieldMappings();
+		writeVarInt(out, fields.size());
+		for (FieldMapping fm : fields) {
+			writeVarInt(out, pool.get(fm.getObfuscatedName()));
+			writeVarInt(out, fm.getSignature().getType().map(t -> pool.get(t.toString())+1).orElse(0));
+			writeVarInt(out, pool.get(fm.getDeobfuscatedName()));
+		}
+		Collection<MethodMapping> methods = cm.getMethodMappings();
+		writeVarInt(out, methods.size());
+		for (MethodMapping mm : methods) {
+			writeVarInt(out, pool.get(mm.getObfuscatedName()));
+			writeVarInt(out, pool.get(mm.getObfuscatedDescriptor()));
+			writeVarInt(out, pool.get(mm.getDeobfuscatedName()));
+			Collection<MethodParameterMapping> params = mm.getParameterMappings();
+			writeVarInt(out, params.size());
+			for (MethodParameterMapping pm : params) {
+				writeVarInt(out, pm.getIndex());
+				writeVarInt(out, pool.get(pm.getDeobfuscatedName()));
+			}
+		}
+		Collection<InnerClassMapping> inners = cm.getInnerClassMappings();
+		writeVarInt(out, inners.size());
+		for (InnerClassMapping icm : inners) {
+			writeClass(out, pool, icm);
+		}
+	}
+
+	private static void readClassBody(ByteBuffer buf, String[] pool, ClassMapping<?, ?> cm) {
+		int fields = readVarInt(buf);
+		for (int i = 0; i < fields; i++) {
+			String name = pool[readVarInt(buf)];
+			int type = readVarInt(buf);
+			String deobf = pool[readVarInt(buf)];
+			cm.createFieldMapping(type == 0 ? new FieldSignature(name) : FieldSignature.of(name, pool[type-1]), deobf);
+		}
+		int methods = readVarInt(buf);
+		for (int i = 0; i < methods; i++) {
+			String name = pool[readVarInt(buf)];
+			String desc = pool[readVarInt(buf)];
+			MethodMapping mm = cm.createMethodMapping(MethodSignature.of(name, desc), pool[readVarInt(buf)]);
+			int params = readVarInt(buf);
+			for (int j = 0; j < params; j++) {
+				mm.createParameterMapping(readVarInt(buf), pool[readVarInt(buf)]);
+			}
+		}
+		int inners = readVarInt(buf);
+		for (int i = 0; i < inners; i++) {
+			InnerClassMapping icm = cm.createInnerClassMapping(pool[readVarInt(buf)], pool[readVarInt(buf)]);
+			readClassBody(buf, pool, icm);
+		}
+	}
+
+	private static void writeString(DataOutputStream out, String s) throws IOException {
+		byte[] bys = s.getBytes(StandardCharsets.UTF_8);
+		writeVarInt(out, bys.length);
+		out.write(bys);
+	}
+
+	private static String readString(ByteBuffer buf) {
+		byte[] bys = new byte[readVarInt(buf)];
+		buf.get(bys);
+		return new String(bys, StandardCharsets.UTF_8);
+	}
+
+	private static void writeVarInt(DataOutputStream out, int i) throws IOException {
+		while ((i & ~0x7F) != 0) {
+			out.writeByte((i & 0x7F) | 0x80);
+			i >>>= 7;
+		}
+		out.writeByte(i);
+	}
+
+	private static int readVarInt(ByteBuffer buf) {
+		int i = 0;
+		int shift = 0;
+		while (true) {
+			byte b = buf.get();
+			i |= (b & 0x7F) << shift;
+			if ((b & 0x80) == 0) return i;
+			shift += 7;
+		}
+	}
+
+}
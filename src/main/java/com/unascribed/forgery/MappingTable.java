@@ -0,0 +1,345 @@
+package com.unascribed.forgery;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.cadixdev.bombe.analysis.InheritanceProvider;
+import org.cadixdev.lorenz.MappingSet;
+import org.cadixdev.lorenz.model.ClassMapping;
+import org.cadixdev.lorenz.model.FieldMapping;
+import org.cadixdev.lorenz.model.InnerClassMapping;
+import org.cadixdev.lorenz.model.MethodMapping;
+import org.cadixdev.lorenz.model.TopLevelClassMapping;
+
+/**
+ * A read-only, array-backed copy of a {@link MappingSet}'s class, field and method names. Every
+ * name is interned into one string pool, classes and members are plain int IDs into parallel
+ * arrays, and lookups go through open-addressing hash tables over those IDs.
+ * <p>
+ * Nothing needs to be completed; inherited members are found by walking up the hierarchy with an
+ * {@link InheritanceProvider} at lookup time. Methods return {@code -1} or {@code null} for
+ * anything that isn't mapped.
+ */
+public final class MappingTable {
+
+	private static final int NONE = -1;
+	// stands in for the descriptor when indexing methods by name alone
+	private static final int ANY_METHOD = -2;
+
+	private final String[] strings;
+	private final int[] stringTable;
+
+	private final int[] classOf;
+	private final int[] classObf;
+	private final int[] classDeobf;
+	private final int[] classDeobfOf;
+
+	private final int[] memberOwner;
+	private final int[] memberName;
+	private final int[] memberDesc;
+	private final int[] memberDeobfName;
+	private final String[] memberDeobfDesc;
+	private final int[] memberTable;
+
+	private final Map<String, String> descCache = new ConcurrentHashMap<>();
+
+	private MappingTable(Builder b) {
+		strings = b.strings.toArray(new String[0]);
+		stringTable = new int[tableSize(strings.length)];
+		for (int i = 0; i < strings.length; i++) {
+			int mask = stringTable.length-1;
+			int slot = mix(strings[i].hashCode()) & mask;
+			while (stringTable[slot] != 0) slot = (slot+1) & mask;
+			stringTable[slot] = i+1;
+		}
+		int classes = b.classObf.size();
+		classOf = new int[strings.length];
+		classDeobfOf = new int[strings.length];
+		Arrays.fill(classOf, NONE);
+		Arrays.fill(classDeobfOf, NONE);
+		classObf = toArray(b.classObf);
+		classDeobf = new int[classes];
+		for (int c = 0; c < classes; c++) {
+			classOf[b.classObf.get(c)] = c;
+			classDeobf[c] = b.classDeobf.get(c);
+			if (classDeobfOf[classDeobf[c]] == NONE) classDeobfOf[classDeobf[c]] = c;
+		}
+		int members = b.memberOwner.size();
+		memberOwner = toArray(b.memberOwner);
+		memberName = toArray(b.memberName);
+		memberDesc = toArray(b.memberDesc);
+		memberDeobfName = toArray(b.memberDeobfName);
+		memberDeobfDesc = new String[members];
+		// every member is indexed by owner, name and descriptor, and by owner and name; the first
+		// declaration of each is also indexed without an owner
+		memberTable = new int[tableSize(members*4)*4];
+		for (int m = 0; m < members; m++) {
+			put(memberOwner[m], memberName[m], memberDesc[m], m);
+			boolean method = memberDesc[m] != NONE && strings[memberDesc[m]].startsWith("(");
+			put(NONE, memberName[m], memberDesc[m], m);
+			if (method) {
+				put(memberOwner[m], memberName[m], ANY_METHOD, m);
+			} else {
+				put(memberOwner[m], memberName[m], NONE, m);
+				put(NONE, memberName[m], NONE, m);
+			}
+		}
+		for (int m = 0; m < members; m++) {
+			memberDeobfDesc[m] = memberDesc[m] == NONE ? null : mapDesc(strings[memberDesc[m]]);
+		}
+	}
+
+	/**
+	 * Copies the names out of the given mappings; the mapping set itself is not retained.
+	 */
+	public static MappingTable of(MappingSet mappings) {
+		Builder b = new Builder();
+		for (TopLevelClassMapping cm : mappings.getTopLevelClassMappings()) {
+			b.add(cm);
+		}
+		return new MappingTable(b);
+	}
+
+	public int getClassCount() {
+		return classDeobf.length;
+	}
+
+	public int getMemberCount() {
+		return memberOwner.length;
+	}
+
+	/**
+	 * @return the mapped name of the given class, or {@code null} if it has no mapping
+	 */
+	public String mapClass(String name) {
+		int c = classId(name);
+		return c == NONE ? null : strings[classDeobf[c]];
+	}
+
+	/**
+	 * @return the name of the class mapped to the given name, or {@code null} if there is none
+	 */
+	public String unmapClass(String deobfName) {
+		int s = stringId(deobfName);
+		if (s == NONE || classDeobfOf[s] == NONE) return null;
+		return strings[classObf[classDeobfOf[s]]];
+	}
+
+	/**
+	 * Maps every class name in a field or method descriptor.
+	 */
+	public String mapDesc(String desc) {
+		if (desc.indexOf('L') == -1) return desc;
+		String cached = descCache.get(desc);
+		if (cached != null) return cached;
+		StringBuilder sb = new StringBuilder(desc.length()+16);
+		int last = 0;
+		for (int i = 0; i < desc.length(); i++) {
+			if (desc.charAt(i) != 'L') continue;
+			int semi = desc.indexOf(';', i);
+			if (semi == -1) break;
+			String mapped = mapClass(desc.substring(i+1, semi));
+			if (mapped != null) {
+				sb.append(desc, last, i+1).append(mapped);
+				last = semi;
+			}
+			i = semi;
+		}
+		String result = last == 0 ? desc : sb.append(desc, last, desc.length()).toString();
+		descCache.put(desc, result);
+		return result;
+	}
+
+	/**
+	 * Finds a field in the given class or its supertypes. If {@code desc} is null or doesn't
+	 * match, the first field with the right name is used.
+	 */
+	public int getField(InheritanceProvider inh, String owner, String name, String desc) {
+		int n = stringId(name);
+		if (n == NONE) return NONE;
+		int d = desc == null ? NONE : stringId(desc);
+		if (d != NONE) {
+			int m = resolve(inh, owner, n, d, false, 0);
+			if (m != NONE) return m;
+		}
+		return resolve(inh, owner, n, NONE, false, 0);
+	}
+
+	/**
+	 * Finds a method in the given class or its supertypes. If {@code desc} is null, the first
+	 * method with the right name is used.
+	 */
+	public int getMethod(InheritanceProvider inh, String owner, String name, String desc) {
+		int n = stringId(name);
+		if (n == NONE) return NONE;
+		int d = NONE;
+		if (desc != null) {
+			d = stringId(desc);
+			if (d == NONE) return NONE;
+		}
+		return resolve(inh, owner, n, d, desc == null, 0);
+	}
+
+	/**
+	 * Finds the first declaration of a member with the given name and descriptor in any class,
+	 * for references that don't name an owner. Fields may omit the descriptor.
+	 */
+	public int findMember(String name, String desc) {
+		int n = stringId(name);
+		if (n == NONE) return NONE;
+		int d = desc == null ? NONE : stringId(desc);
+		if (desc != null && d == NONE) return NONE;
+		return get(NONE, n, d);
+	}
+
+	public String getName(int member) {
+		return strings[memberName[member]];
+	}
+
+	public String getDesc(int member) {
+		return memberDesc[member] == NONE ? null : strings[memberDesc[member]];
+	}
+
+	public String getDeobfName(int member) {
+		return strings[memberDeobfName[member]];
+	}
+
+	public String getDeobfDesc(int member) {
+		return memberDeobfDesc[member];
+	}
+
+	private int resolve(InheritanceProvider inh, String owner, int name, int desc, boolean anyDesc, int depth) {
+		int c = classId(owner);
+		if (c != NONE) {
+			int m = get(c, name, anyDesc ? ANY_METHOD : desc);
+			if (m != NONE) return m;
+		}
+		if (inh == null || depth > 64) return NONE;
+		InheritanceProvider.ClassInfo info = inh.provide(owner).orElse(null);
+		if (info == null) return NONE;
+		if (info.getSuperName() != null) {
+			int m = resolve(inh, info.getSuperName(), name, desc, anyDesc, depth+1);
+			if (m != NONE) return m;
+		}
+		for (String itf : info.getInterfaces()) {
+			int m = resolve(inh, itf, name, desc, anyDesc, depth+1);
+			if (m != NONE) return m;
+		}
+		return NONE;
+	}
+
+	private int classId(String name) {
+		int s = stringId(name);
+		return s == NONE ? NONE : classOf[s];
+	}
+
+	private int stringId(String s) {
+		int mask = stringTable.length-1;
+		int slot = mix(s.hashCode()) & mask;
+		while (true) {
+			int v = stringTable[slot];
+			if (v == 0) return NONE;
+			if (strings[v-1].equals(s)) return v-1;
+			slot = (slot+1) & mask;
+		}
+	}
+
+	private void put(int owner, int name, int desc, int member) {
+		int mask = memberTable.length/4-1;
+		int slot = mix(owner*31+name*17+desc) & mask;
+		while (true) {
+			int base = slot*4;
+			if (memberTable[base+3] == 0) {
+				memberTable[base] = owner;
+				memberTable[base+1] = name;
+				memberTable[base+2] = desc;
+				memberTable[base+3] = member+1;
+				return;
+			}
+			if (memberTable[base] == owner && memberTable[base+1] == name && memberTable[base+2] == desc) {
+				// first declaration wins
+				return;
+			}
+			slot = (slot+1) & mask;
+		}
+	}
+
+	private int get(int owner, int name, int desc) {
+		int mask = memberTable.length/4-1;
+		int slot = mix(owner*31+name*17+desc) & mask;
+		while (true) {
+			int base = slot*4;
+			if (memberTable[base+3] == 0) return NONE;
+			if (memberTable[base] == owner && memberTable[base+1] == name && memberTable[base+2] == desc) {
+				return memberTable[base+3]-1;
+			}
+			slot = (slot+1) & mask;
+		}
+	}
+
+	private static int mix(int h) {
+		h *= 0x9E3779B9;
+		return h ^ (h >>> 16);
+	}
+
+	private static int tableSize(int entries) {
+		int size = 16;
+		while (size < entries*2) size <<= 1;
+		return size;
+	}
+
+	private static int[] toArray(List<Integer> li) {
+		int[] arr = new int[li.size()];
+		for (int i = 0; i < arr.length; i++) {
+			arr[i] = li.get(i);
+		}
+		return arr;
+	}
+
+	private static class Builder {
+		final List<String> strings = new ArrayList<>();
+		final Map<String, Integer> stringIds = new HashMap<>();
+		final List<Integer> classObf = new ArrayList<>();
+		final List<Integer> classDeobf = new ArrayList<>();
+		final List<Integer> memberOwner = new ArrayList<>();
+		final List<Integer> memberName = new ArrayList<>();
+		final List<Integer> memberDesc = new ArrayList<>();
+		final List<Integer> memberDeobfName = new ArrayList<>();
+
+		int intern(String s) {
+			Integer id = stringIds.get(s);
+			if (id == null) {
+				id = strings.size();
+				strings.add(s);
+				stringIds.put(s, id);
+			}
+			return id;
+		}
+
+		void add(ClassMapping<?, ?> cm) {
+			int c = classObf.size();
+			classObf.add(intern(cm.getFullObfuscatedName()));
+			classDeobf.add(intern(cm.getFullDeobfuscatedName()));
+			for (FieldMapping fm : cm.getFieldMappings()) {
+				memberOwner.add(c);
+				memberName.add(intern(fm.getObfuscatedName()));
+				memberDesc.add(fm.getSignature().getType().map(t -> intern(t.toString())).orElse(NONE));
+				memberDeobfName.add(intern(fm.getDeobfuscatedName()));
+			}
+			for (MethodMapping mm : cm.getMethodMappings()) {
+				memberOwner.add(c);
+				memberName.add(intern(mm.getObfuscatedName()));
+				memberDesc.add(intern(mm.getObfuscatedDescriptor()));
+				memberDeobfName.add(intern(mm.getDeobfuscatedName()));
+			}
+			for (InnerClassMapping icm : cm.getInnerClassMappings()) {
+				add(icm);
+			}
+		}
+	}
+
+}
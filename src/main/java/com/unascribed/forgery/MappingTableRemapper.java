@@ -0,0 +1,45 @@
+package com.unascribed.forgery;
+
+import org.cadixdev.bombe.analysis.InheritanceProvider;
+import org.objectweb.asm.commons.Remapper;
+
+/**
+ * An ASM {@link Remapper} backed by a {@link MappingTable}, for use in place of Lorenz's
+ * {@code LorenzRemapper}. Inherited members are resolved through the given
+ * {@link InheritanceProvider}, so the mappings never need to be completed.
+ */
+public class MappingTableRemapper extends Remapper {
+
+	private final MappingTable table;
+	private final InheritanceProvider inheritanceProvider;
+
+	public MappingTableRemapper(MappingTable table, InheritanceProvider inheritanceProvider) {
+		this.table = table;
+		this.inheritanceProvider = inheritanceProvider;
+	}
+
+	@Override
+	public String map(String internalName) {
+		String mapped = table.mapClass(internalName);
+		return mapped == null ? internalName : mapped;
+	}
+
+	@Override
+	public String mapFieldName(String owner, String name, String descriptor) {
+		int m = table.getField(inheritanceProvider, owner, name, descriptor);
+		return m == -1 ? name : table.getDeobfName(m);
+	}
+
+	@Override
+	public String mapRecordComponentName(String owner, String name, String descriptor) {
+		return mapFieldName(owner, name, descriptor);
+	}
+
+	@Override
+	public String mapMethodName(String owner, String name, String descriptor) {
+		if (name.startsWith("<")) return name;
+		int m = table.getMethod(inheritanceProvider, owner, name, descriptor);
+		return m == -1 ? name : table.getDeobfName(m);
+	}
+
+}
@@ -0,0 +1,70 @@
+package com.unascribed.forgery;
+
+import org.cadixdev.lorenz.MappingSet;
+
+/**
+ * The merged Intermediary/SRG mappings for one Minecraft version, as loaded by
+ * {@link Forgery#loadMappings}. Either the Lorenz mapping set is present, or only the
+ * {@link MappingTable} is, if {@code forgery.mappingTable} was set when loading.
+ */
+public class Mappings {
+
+	private final MappingSet intToSrg;
+	private final String key;
+	private volatile MappingTable table;
+	private Report loadReport = new Report();
+
+	public Mappings(MappingSet intToSrg, String key) {
+		this.intToSrg = intToSrg;
+		this.key = key;
+	}
+
+	public Mappings(MappingTable table, String key) {
+		this((MappingSet)null, key);
+		this.table = table;
+	}
+
+	/**
+	 * @return the Intermediary to SRG mapping set, or {@code null} if only the table was kept
+	 */
+	public MappingSet getIntToSrg() {
+		return intToSrg;
+	}
+
+	/**
+	 * @return the Intermediary to SRG mappings as a {@link MappingTable}, built on first use
+	 */
+	public MappingTable getTable() {
+		MappingTable t = table;
+		if (t == null) {
+			synchronized (this) {
+				t = table;
+				if (t == null) {
+					table = t = MappingTable.of(intToSrg);
+				}
+			}
+		}
+		return t;
+	}
+
+	/**
+	 * @return the time spent loading these mappings, included in the report of every conversion
+	 * 		that uses them
+	 */
+	public Report getLoadReport() {
+		return loadReport;
+	}
+
+	void setLoadReport(Report loadReport) {
+		this.loadReport = loadReport;
+	}
+
+	/**
+	 * @return a hash of the files these mappings were built from, as computed by
+	 * 		{@link MappingCache#key}
+	 */
+	public String getKey() {
+		return key;
+	}
+
+}
@@ -0,0 +1,117 @@
+package com.unascribed.forgery;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipEntry;
+
+import org.cadixdev.atlas.CachingInheritanceProvider;
+import org.cadixdev.atlas.RawZipFile;
+import org.cadixdev.bombe.asm.analysis.ClassProviderInheritanceProvider;
+import org.cadixdev.bombe.asm.jar.ClassProvider;
+import org.objectweb.asm.Opcodes;
+
+/**
+ * The Intermediary Minecraft jar, memory-mapped and indexed once and shared by every phase of a
+ * conversion, along with a single inheritance provider so class information parsed while
+ * remapping refmaps is still warm when the jar is transformed. Classes are inflated straight out
+ * of the mapping, so reading one is neither a system call nor a lock.
+ */
+public class MinecraftJar implements ClassProvider, Closeable {
+
+	private static final int LOCAL_HEADER = 0x04034b50;
+
+	private final Path path;
+	private final MappedByteBuffer data;
+	private final Map<String, RawZipFile.Entry> classes = new HashMap<>();
+	private final CachingInheritanceProvider inheritanceProvider;
+
+	public MinecraftJar(Path path) throws IOException {
+		this.path = path;
+		try (RawZipFile zip = new RawZipFile(path)) {
+			for (RawZipFile.Entry entry : zip.getEntries()) {
+				String name = entry.getName();
+				if (name.endsWith(".class")) {
+					classes.put(name.substring(0, name.length()-6), entry);
+				}
+			}
+		}
+		try (FileChannel channel = FileChannel.open(path)) {
+			if (channel.size() > Integer.MAX_VALUE) throw new IOException(path+" is too large to map");
+			this.data = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		}
+		this.inheritanceProvider = new CachingInheritanceProvider(new ClassProviderInheritanceProvider(Opcodes.ASM9, this));
+	}
+
+	@Override
+	public byte[] get(String klass) {
+		RawZipFile.Entry entry = classes.get(klass);
+		if (entry == null) return null;
+		try {
+			return read(entry);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	private byte[] read(RawZipFile.Entry entry) throws IOException {
+		// every reader gets its own view, so they don't share a position
+		ByteBuffer buf = data.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+		int header = (int)entry.getLocalHeaderOffset();
+		if (buf.getInt(header) != LOCAL_HEADER) throw new IOException("Bad local header for "+entry.getName()+" in "+path);
+		int start = header+30+(buf.getShort(header+26) & 0xFFFF)+(buf.getShort(header+28) & 0xFFFF);
+		buf.position(start).limit(start+(int)entry.getCompressedSize());
+		byte[] out = new byte[(int)entry.getSize()];
+		if (entry.getMethod() == ZipEntry.STORED) {
+			buf.get(out);
+			return out;
+		}
+		if (entry.getMethod() != ZipEntry.DEFLATED) throw new IOException("Unsupported compression for "+entry.getName()+" in "+path);
+		Inflater inflater = new Inflater(true);
+		try {
+			inflater.setInput(buf);
+			int n = 0;
+			while (n < out.length) {
+				int read = inflater.inflate(out, n, out.length-n);
+				if (read == 0 && (inflater.finished() || inflater.needsInput() || inflater.needsDictionary())) break;
+				n += read;
+			}
+			if (n != out.length) throw new IOException("Truncated "+entry.getName()+" in "+path);
+			return out;
+		} catch (DataFormatException e) {
+			throw new IOException("Corrupt "+entry.getName()+" in "+path, e);
+		} finally {
+			inflater.end();
+		}
+	}
+
+	public Path getPath() {
+		return path;
+	}
+
+	public CachingInheritanceProvider getInheritanceProvider() {
+		return inheritanceProvider;
+	}
+
+	public int getClassCount() {
+		return classes.size();
+	}
+
+	/**
+	 * Does nothing for now; the mapping is released once this is garbage collected, as there's
+	 * no supported way to unmap it sooner.
+	 */
+	@Override
+	public void close() throws IOException {
+	}
+
+}
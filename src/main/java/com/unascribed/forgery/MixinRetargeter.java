@@ -0,0 +1,171 @@
+package com.unascribed.forgery;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.cadixdev.bombe.analysis.InheritanceProvider;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.FieldVisitor;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+
+/**
+ * Renames the members of a mixin to the SRG names of the members of its targets they share a name
+ * with, and fixes up references to those members and to Intermediary members of Minecraft classes
+ * in its code.
+ * <p>
+ * Every rename is worked out by {@link #create} from a {@link ClassProbe} of the class, so the class
+ * itself is rewritten in one pass with a hash lookup per member and instruction.
+ */
+class MixinRetargeter extends ClassVisitor {
+
+	private static final class Renamed {
+		final String desc;
+		final String newName;
+		final String newDesc;
+		final Renamed next;
+
+		Renamed(String desc, String newName, String newDesc, Renamed next) {
+			this.desc = desc;
+			this.newName = newName;
+			this.newDesc = newDesc;
+			this.next = next;
+		}
+	}
+
+	private final MappingTable table;
+	private final InheritanceProvider inh;
+	// keyed by the original name; overloads are chained
+	private final Map<String, Renamed> methods;
+	private final Map<String, Renamed> fields;
+
+	private MixinRetargeter(ClassVisitor cv, MappingTable table, InheritanceProvider inh, Map<String, Renamed> methods, Map<String, Renamed> fields) {
+		super(Opcodes.ASM9, cv);
+		this.table = table;
+		this.inh = inh;
+		this.methods = methods;
+		this.fields = fields;
+	}
+
+	/**
+	 * @return a retargeter writing to the given visitor, or {@code null} if the class isn't a
+	 * 		mixin or none of its targets are mapped
+	 */
+	static MixinRetargeter create(ClassProbe probe, ClassVisitor cv, MappingTable table, InheritanceProvider inh, Map<String, String> yarnToInt) {
+		if (probe.mixinTargets.isEmpty()) return null;
+		List<String> intTargets = new ArrayList<>();
+		for (String tgt : probe.mixinTargets) {
+			String intTgt;
+			if (yarnToInt.containsKey(tgt)) {
+				intTgt = yarnToInt.get(tgt);
+				if (table.mapClass(intTgt) == null) continue;
+			} else {
+				// string targets may use either separator
+				intTgt = table.unmapClass(tgt.replace('.', '/'));
+				if (intTgt == null) continue;
+			}
+			intTargets.add(intTgt);
+		}
+		if (intTargets.isEmpty()) return null;
+		Map<String, Renamed> methods = new HashMap<>();
+		Map<String, Renamed> fields = new HashMap<>();
+		for (int i = 0; i < probe.methods.size(); i += 2) {
+			String name = probe.methods.get(i);
+			String desc = probe.methods.get(i+1);
+			String newName = name;
+			String newDesc = desc;
+			// later targets see the names given by earlier ones
+			for (String intTgt : intTargets) {
+				int mm = table.getMethod(inh, intTgt, newName, null);
+				if (mm != -1) {
+					newName = table.getDeobfName(mm);
+					newDesc = table.getDeobfDesc(mm);
+				}
+			}
+			if (newName != name || newDesc != desc) {
+				methods.put(name, new Renamed(desc, newName, newDesc, methods.get(name)));
+			}
+		}
+		for (int i = 0; i < probe.fields.size(); i += 2) {
+			String name = probe.fields.get(i);
+			String desc = probe.fields.get(i+1);
+			String newName = name;
+			String newDesc = desc;
+			for (String intTgt : intTargets) {
+				int fm = table.getField(inh, intTgt, newName, null);
+				if (fm != -1) {
+					newName = table.getDeobfName(fm);
+					if (table.getDeobfDesc(fm) != null) newDesc = table.getDeobfDesc(fm);
+				}
+			}
+			if (newName != name || newDesc != desc) {
+				fields.put(name, new Renamed(desc, newName, newDesc, null));
+			}
+		}
+		return new MixinRetargeter(cv, table, inh, methods, fields);
+	}
+
+	@Override
+	public FieldVisitor visitField(int access, String name, String descriptor, String signature, Object value) {
+		Renamed r = fields.get(name);
+		if (r != null && r.desc.equals(descriptor)) {
+			return super.visitField(access, r.newName, r.newDesc, signature, value);
+		}
+		return super.visitField(access, name, descriptor, signature, value);
+	}
+
+	@Override
+	public MethodVisitor visitMethod(int access, String name, String descriptor, String signature, String[] exceptions) {
+		Renamed r = findMethod(name, descriptor);
+		MethodVisitor mv = r == null ? super.visitMethod(access, name, descriptor, signature, exceptions)
+				: super.visitMethod(access, r.newName, r.newDesc, signature, exceptions);
+		return mv == null ? null : new MethodVisitor(api, mv) {
+			@Override
+			public void visitFieldInsn(int opcode, String owner, String name, String descriptor) {
+				Renamed r = fields.get(name);
+				if (r != null) name = r.newName;
+				if (name.startsWith("field_") && name.lastIndexOf('_') == 5) {
+					String intOwner = table.unmapClass(owner);
+					if (intOwner != null) {
+						int fm = table.getField(inh, intOwner, name, null);
+						if (fm != -1) {
+							name = table.getDeobfName(fm);
+							if (table.getDeobfDesc(fm) != null) descriptor = table.getDeobfDesc(fm);
+						}
+					}
+				}
+				super.visitFieldInsn(opcode, owner, name, descriptor);
+			}
+
+			@Override
+			public void visitMethodInsn(int opcode, String owner, String name, String descriptor, boolean isInterface) {
+				Renamed r = findMethod(name, descriptor);
+				if (r != null) {
+					name = r.newName;
+					descriptor = r.newDesc;
+				}
+				if (name.startsWith("method_")) {
+					String intOwner = table.unmapClass(owner);
+					if (intOwner != null) {
+						int mm = table.getMethod(inh, intOwner, name, descriptor);
+						if (mm != -1) {
+							name = table.getDeobfName(mm);
+							descriptor = table.getDeobfDesc(mm);
+						}
+					}
+				}
+				super.visitMethodInsn(opcode, owner, name, descriptor, isInterface);
+			}
+		};
+	}
+
+	private Renamed findMethod(String name, String desc) {
+		for (Renamed r = methods.get(name); r != null; r = r.next) {
+			if (r.desc.equals(desc)) return r;
+		}
+		return null;
+	}
+
+}
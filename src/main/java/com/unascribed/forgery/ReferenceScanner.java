@@ -0,0 +1,404 @@
+package com.unascribed.forgery;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import org.cadixdev.bombe.analysis.InheritanceProvider;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.Type;
+import org.objectweb.asm.signature.SignatureReader;
+import org.objectweb.asm.signature.SignatureWriter;
+
+import com.grack.nanojson.JsonObject;
+import com.grack.nanojson.JsonParser;
+import com.grack.nanojson.JsonParserException;
+
+/**
+ * Discovers which classes and members a mod refers to, by reading the constant pools of its
+ * classes (without visiting their code) along with its refmaps and access wideners. The jar is
+ * scanned on as many threads as asked for; scanning is safe from multiple threads.
+ */
+public class ReferenceScanner {
+
+	/**
+	 * A field or method a class refers to.
+	 */
+	public static final class MemberRef {
+		public final String owner;
+		public final String name;
+		public final String desc;
+
+		public MemberRef(String owner, String name, String desc) {
+			this.owner = owner;
+			this.name = name;
+			this.desc = desc;
+		}
+
+		public boolean isMethod() {
+			return desc.startsWith("(");
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof MemberRef)) return false;
+			MemberRef that = (MemberRef)obj;
+			return owner.equals(that.owner) && name.equals(that.name) && desc.equals(that.desc);
+		}
+
+		@Override
+		public int hashCode() {
+			return (owner.hashCode()*31+name.hashCode())*31+desc.hashCode();
+		}
+	}
+
+	private static final int CONSTANT_UTF8 = 1;
+	private static final int CONSTANT_CLASS = 7;
+	private static final int CONSTANT_FIELDREF = 9;
+	private static final int CONSTANT_METHODREF = 10;
+	private static final int CONSTANT_INTERFACE_METHODREF = 11;
+	private static final int CONSTANT_NAME_AND_TYPE = 12;
+	private static final int CONSTANT_METHOD_TYPE = 16;
+
+	private final int threads;
+	private final Set<String> classes = ConcurrentHashMap.newKeySet();
+	private final Set<MemberRef> members = ConcurrentHashMap.newKeySet();
+
+	public ReferenceScanner() {
+		this(1);
+	}
+
+	public ReferenceScanner(int threads) {
+		if (threads < 1) throw new IllegalArgumentException("threads must be at least 1");
+		this.threads = threads;
+	}
+
+	public Set<String> getClasses() {
+		return classes;
+	}
+
+	/**
+	 * @return every field and method referred to from the constant pool of a class
+	 */
+	public Set<MemberRef> getMembers() {
+		return members;
+	}
+
+	public void scanJar(ZipFile zip, Set<String> refmapFiles) throws IOException, JsonParserException {
+		List<? extends ZipEntry> entries = zip.stream().collect(Collectors.toList());
+		if (threads == 1) {
+			for (ZipEntry ze : entries) {
+				scanEntry(zip, ze, refmapFiles);
+			}
+			return;
+		}
+		ForkJoinPool pool = new ForkJoinPool(threads);
+		try {
+			pool.submit(() -> entries.parallelStream().forEach(ze -> {
+				try {
+					scanEntry(zip, ze, refmapFiles);
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				} catch (JsonParserException e) {
+					throw new UncheckedIOException(new IOException("Malformed refmap "+ze.getName(), e));
+				}
+			})).get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException(e);
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof UncheckedIOException) throw ((UncheckedIOException)cause).getCause();
+			if (cause instanceof RuntimeException) throw (RuntimeException)cause;
+			throw new IOException(cause);
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	/**
+	 * Looks up every referenced class and member in the Minecraft jar and the mappings, so the
+	 * class hierarchy needed to remap them is already loaded when the jar is transformed.
+	 *
+	 * @return the number of referenced classes found in the Minecraft jar, and of referenced
+	 * 		members that are mapped
+	 */
+	public int[] prewarm(MappingTable table, InheritanceProvider inh) throws IOException {
+		Set<String> known = ConcurrentHashMap.newKeySet();
+		LongAdder mapped = new LongAdder();
+		Runnable warm = () -> {
+			stream(classes).forEach(name -> {
+				if (inh.provide(name).isPresent()) known.add(name);
+			});
+			stream(members).forEach(ref -> {
+				if (!known.contains(ref.owner)) return;
+				int m = ref.isMethod() ? table.getMethod(inh, ref.owner, ref.name, ref.desc)
+						: table.getField(inh, ref.owner, ref.name, null);
+				if (m != -1) mapped.increment();
+				table.mapDesc(ref.desc);
+			});
+		};
+		if (threads == 1) {
+			warm.run();
+		} else {
+			ForkJoinPool pool = new ForkJoinPool(threads);
+			try {
+				pool.submit(warm).get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IOException(e);
+			} catch (ExecutionException e) {
+				if (e.getCause() instanceof RuntimeException) throw (RuntimeException)e.getCause();
+				throw new IOException(e.getCause());
+			} finally {
+				pool.shutdown();
+			}
+		}
+		return new int[] { known.size(), mapped.intValue() };
+	}
+
+	private <T> Stream<T> stream(Set<T> set) {
+		return threads == 1 ? set.stream() : set.parallelStream();
+	}
+
+	private void scanEntry(ZipFile zip, ZipEntry ze, Set<String> refmapFiles) throws IOException, JsonParserException {
+		String name = ze.getName();
+		if (name.endsWith(".class")) {
+			try (InputStream in = zip.getInputStream(ze)) {
+				scanClass(in.readAllBytes());
+			}
+		} else if (name.endsWith(".accesswidener")) {
+			try (BufferedReader br = new BufferedReader(new InputStreamReader(zip.getInputStream(ze)))) {
+				br.readLine();
+				String line;
+				while ((line = br.readLine()) != null) {
+					scanAccessWidener(line);
+				}
+			}
+		} else if (name.equals("fabAbsRefMap.txt") || name.equals("fabRelRefMap.txt")) {
+			try (BufferedReader br = new BufferedReader(new InputStreamReader(zip.getInputStream(ze)))) {
+				String line;
+				while ((line = br.readLine()) != null) {
+					for (String part : line.split("\t")) {
+						int i = part.indexOf(' ');
+						if (i != -1) scanRefmapTarget(part.substring(i+1));
+					}
+				}
+			}
+		} else if (refmapFiles.contains(name)) {
+			JsonObject refmap;
+			try (InputStream in = zip.getInputStream(ze)) {
+				refmap = JsonParser.object().from(in);
+			}
+			for (Object obj : refmap.getObject("mappings").values()) {
+				for (Map.Entry<String, Object> en : ((JsonObject)obj).entrySet()) {
+					scanRefmapTarget((String)en.getValue());
+				}
+			}
+		}
+	}
+
+	public void scanClass(byte[] bytes) {
+		ClassReader cr = new ClassReader(bytes);
+		char[] buf = new char[cr.getMaxStringLength()];
+		for (int i = 1; i < cr.getItemCount(); i++) {
+			int offset = cr.getItem(i);
+			// the second slot of a long or double has no entry
+			if (offset == 0) continue;
+			switch (cr.readByte(offset-1)) {
+				case CONSTANT_CLASS: {
+					String name = cr.readUTF8(offset, buf);
+					if (name.startsWith("[")) {
+						scanDescriptor(name);
+					} else {
+						classes.add(name);
+					}
+					break;
+				}
+				case CONSTANT_FIELDREF:
+				case CONSTANT_METHODREF:
+				case CONSTANT_INTERFACE_METHODREF: {
+					String owner = cr.readClass(offset, buf);
+					// references to array methods such as clone have an array owner
+					if (owner.startsWith("[")) break;
+					int nat = cr.getItem(cr.readUnsignedShort(offset+2));
+					members.add(new MemberRef(owner, cr.readUTF8(nat, buf), cr.readUTF8(nat+2, buf)));
+					break;
+				}
+				case CONSTANT_NAME_AND_TYPE:
+					scanDescriptor(cr.readUTF8(offset+2, buf));
+					break;
+				case CONSTANT_METHOD_TYPE:
+					scanDescriptor(cr.readUTF8(offset, buf));
+					break;
+				case CONSTANT_UTF8: {
+					// declared member descriptors, signatures and annotation class values are
+					// only present as bare UTF8 constants, alongside every other string
+					String s = readAsciiUtf8(cr, offset);
+					if (s != null) scanDescriptorOrSignature(s);
+					break;
+				}
+			}
+		}
+	}
+
+	public void scanAccessWidener(String line) {
+		int hash = line.indexOf('#');
+		String[] split = (hash == -1 ? line : line.substring(0, hash)).trim().split("\\s+");
+		if (split.length < 3) return;
+		classes.add(split[2]);
+		if (split.length > 4) {
+			scanDescriptor(split[4]);
+			members.add(new MemberRef(split[2], split[3], split[4]));
+		}
+	}
+
+	public void scanRefmapTarget(String mapping) {
+		String member = mapping;
+		if (mapping.startsWith("L")) {
+			int semi = mapping.indexOf(';');
+			if (semi != -1) {
+				classes.add(mapping.substring(1, semi));
+				member = mapping.substring(semi+1);
+			}
+		}
+		int paren = member.indexOf('(');
+		int colon = member.indexOf(':');
+		if (paren != -1) {
+			scanDescriptor(member.substring(paren));
+		} else if (colon != -1) {
+			scanDescriptor(member.substring(colon+1));
+		} else if (member == mapping) {
+			classes.add(mapping);
+		}
+	}
+
+	/**
+	 * Records the classes named by a field or method descriptor. Anything that isn't a valid
+	 * descriptor is ignored.
+	 */
+	private void scanDescriptor(String desc) {
+		if (!isDescriptor(desc)) return;
+		if (desc.startsWith("(")) {
+			for (Type t : Type.getArgumentTypes(desc)) {
+				scanType(t);
+			}
+			scanType(Type.getReturnType(desc));
+		} else {
+			scanType(Type.getType(desc));
+		}
+	}
+
+	/**
+	 * Records the classes named by a descriptor, or by a class, method or field signature.
+	 * Anything that is neither, such as a string constant that happens to start with {@code L},
+	 * is ignored.
+	 */
+	private void scanDescriptorOrSignature(String str) {
+		if (isDescriptor(str)) {
+			scanDescriptor(str);
+			return;
+		}
+		List<String> found = new ArrayList<>();
+		SignatureWriter sw = new SignatureWriter() {
+			// the class types being visited, outermost type argument last
+			private final Deque<String> types = new ArrayDeque<>();
+
+			@Override
+			public void visitClassType(String name) {
+				types.push(name);
+				found.add(name);
+				super.visitClassType(name);
+			}
+
+			@Override
+			public void visitInnerClassType(String name) {
+				String inner = types.pop()+"$"+name;
+				types.push(inner);
+				found.add(inner);
+				super.visitInnerClassType(name);
+			}
+
+			@Override
+			public void visitEnd() {
+				types.pop();
+				super.visitEnd();
+			}
+		};
+		try {
+			new SignatureReader(str).accept(sw);
+		} catch (RuntimeException e) {
+			return;
+		}
+		// the reader stops early on some malformed input rather than throwing
+		if (sw.toString().equals(str)) classes.addAll(found);
+	}
+
+	private void scanType(Type t) {
+		if (t.getSort() == Type.ARRAY) t = t.getElementType();
+		if (t.getSort() == Type.OBJECT) classes.add(t.getInternalName());
+	}
+
+	private static boolean isDescriptor(String str) {
+		int i = 0;
+		if (str.startsWith("(")) {
+			i = 1;
+			while (i < str.length() && str.charAt(i) != ')') {
+				i = skipFieldDescriptor(str, i);
+				if (i == -1) return false;
+			}
+			if (i == str.length()) return false;
+			i++;
+			if (i == str.length()-1 && str.charAt(i) == 'V') return true;
+		}
+		return skipFieldDescriptor(str, i) == str.length();
+	}
+
+	/**
+	 * @return the index after the field descriptor starting at the given index, or -1 if there
+	 * 		isn't one
+	 */
+	private static int skipFieldDescriptor(String str, int i) {
+		while (i < str.length() && str.charAt(i) == '[') i++;
+		if (i == str.length()) return -1;
+		char c = str.charAt(i);
+		if (c != 'L') return "ZBCSIJFD".indexOf(c) == -1 ? -1 : i+1;
+		for (int j = i+1; j < str.length(); j++) {
+			char n = str.charAt(j);
+			if (n == ';') return j == i+1 ? -1 : j+1;
+			if (n == '.' || n == '[' || n == '<' || n == '>' || n == '(' || n == ')' || n == ':' || Character.isWhitespace(n)) return -1;
+		}
+		return -1;
+	}
+
+	private static String readAsciiUtf8(ClassReader cr, int offset) {
+		int len = cr.readUnsignedShort(offset);
+		if (len < 3) return null;
+		int first = cr.readByte(offset+2);
+		if (first != 'L' && first != '(' && first != '[' && first != '<') return null;
+		char[] chars = new char[len];
+		for (int i = 0; i < len; i++) {
+			int b = cr.readByte(offset+2+i);
+			if (b >= 0x80) return null;
+			chars[i] = (char)b;
+		}
+		return new String(chars);
+	}
+
+}
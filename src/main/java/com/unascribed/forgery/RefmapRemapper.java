@@ -0,0 +1,125 @@
+package com.unascribed.forgery;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.grack.nanojson.JsonAppendableWriter;
+import com.grack.nanojson.JsonObject;
+import com.grack.nanojson.JsonParserException;
+import com.grack.nanojson.JsonReader;
+import com.grack.nanojson.JsonWriter;
+
+/**
+ * Remaps a mixin refmap token by token, writing the result as it goes instead of building the
+ * whole refmap as a tree. The remapped {@code mappings} are also written to {@code data} as
+ * {@code named:srg}, so they're kept, once, until {@code data} is written.
+ *
+ * @see RemapCache
+ */
+class RefmapRemapper {
+
+	interface Remap {
+		/**
+		 * @return the remapped reference, or {@code null} to leave it out
+		 */
+		String remap(String mapping, String key);
+	}
+
+	private final Remap remap;
+
+	RefmapRemapper(Remap remap) {
+		this.remap = remap;
+	}
+
+	byte[] remap(InputStream in) throws JsonParserException {
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		JsonAppendableWriter out = JsonWriter.indent("\t").on(baos);
+		JsonReader r = JsonReader.from(in);
+		// class to alternating keys and remapped values
+		Map<String, List<String>> remapped = null;
+		JsonObject data = null;
+		boolean hasData = false;
+		r.object();
+		out.object();
+		while (r.next()) {
+			String key = r.key();
+			if (key.equals("mappings") && r.current() == JsonReader.Type.OBJECT) {
+				remapped = new LinkedHashMap<>();
+				out.object("mappings");
+				r.object();
+				while (r.next()) {
+					String clazz = r.key();
+					List<String> entries = new ArrayList<>();
+					remapped.put(clazz, entries);
+					out.object(clazz);
+					r.object();
+					while (r.next()) {
+						String k = r.key();
+						String v = remap.remap(r.string(), k);
+						if (v == null) continue;
+						entries.add(k);
+						entries.add(v);
+						out.value(k, v);
+					}
+					out.end();
+				}
+				out.end();
+				if (data != null) {
+					writeData(out, data, remapped);
+					data = null;
+				}
+			} else if (key.equals("data") && r.current() == JsonReader.Type.OBJECT) {
+				hasData = true;
+				if (remapped == null) {
+					// named:srg can't be written yet, so keep this until it can
+					data = (JsonObject)r.value();
+					continue;
+				}
+				out.object("data");
+				r.object();
+				while (r.next()) {
+					String k = r.key();
+					Object v = r.value();
+					if (!k.equals("named:srg")) out.value(k, v);
+				}
+				writeSrg(out, remapped);
+				out.end();
+			} else {
+				out.value(key, r.value());
+			}
+		}
+		if (data != null || !hasData) {
+			writeData(out, data == null ? new JsonObject() : data, remapped == null ? new LinkedHashMap<>() : remapped);
+		}
+		out.end();
+		out.done();
+		return baos.toByteArray();
+	}
+
+	private static void writeData(JsonAppendableWriter out, JsonObject data, Map<String, List<String>> remapped) {
+		out.object("data");
+		for (Map.Entry<String, Object> en : data.entrySet()) {
+			if (!en.getKey().equals("named:srg")) out.value(en.getKey(), en.getValue());
+		}
+		writeSrg(out, remapped);
+		out.end();
+	}
+
+	private static void writeSrg(JsonAppendableWriter out, Map<String, List<String>> remapped) {
+		out.object("named:srg");
+		for (Map.Entry<String, List<String>> en : remapped.entrySet()) {
+			out.object(en.getKey());
+			List<String> entries = en.getValue();
+			for (int i = 0; i < entries.size(); i += 2) {
+				out.value(entries.get(i), entries.get(i+1));
+			}
+			out.end();
+		}
+		out.end();
+	}
+
+}
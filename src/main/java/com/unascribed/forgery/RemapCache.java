@@ -0,0 +1,68 @@
+package com.unascribed.forgery;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.cadixdev.bombe.analysis.InheritanceProvider;
+
+/**
+ * Remembers what {@link Forgery#remap} made of each member reference, so references repeated
+ * across the mixin refmap and the Fabrication refmaps are only looked up once. Safe to use from
+ * multiple threads.
+ * <p>
+ * Class references aren't remembered, as remapping one also records which key it was found
+ * under, and looking one up is a single hash lookup anyway.
+ */
+class RemapCache {
+
+	// stands in for a null result, which ConcurrentHashMap can't hold
+	private static final String DROPPED = new String("");
+
+	private final MappingTable table;
+	private final InheritanceProvider inh;
+	private final Map<String, String> memo = new ConcurrentHashMap<>();
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+
+	RemapCache(MappingTable table, InheritanceProvider inh) {
+		this.table = table;
+		this.inh = inh;
+	}
+
+	/**
+	 * @param yarnToInt where class references are recorded under their key; must be safe for
+	 * 		concurrent use if this is called from multiple threads
+	 * @return the remapped reference, or {@code null} if it should be left out
+	 * @see Forgery#remap
+	 */
+	String remap(String mapping, String key, Map<String, String> yarnToInt) {
+		if (mapping.indexOf('(') == -1 && mapping.indexOf(':') == -1) {
+			return Forgery.remap(mapping, key, table, yarnToInt, inh);
+		}
+		String v = memo.get(mapping);
+		if (v == null) {
+			misses.increment();
+			// the key only matters for class references, so racing threads get the same answer
+			v = Forgery.remap(mapping, key, table, yarnToInt, inh);
+			memo.putIfAbsent(mapping, v == null ? DROPPED : v);
+		} else {
+			hits.increment();
+		}
+		return v == DROPPED ? null : v;
+	}
+
+	long getHits() {
+		return hits.sum();
+	}
+
+	long getMisses() {
+		return misses.sum();
+	}
+
+	void report(Report report) {
+		report.count("remap.hits", getHits());
+		report.count("remap.misses", getMisses());
+	}
+
+}
@@ -0,0 +1,125 @@
+package com.unascribed.forgery;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+import com.grack.nanojson.JsonArray;
+import com.grack.nanojson.JsonObject;
+import com.grack.nanojson.JsonWriter;
+
+import jdk.jfr.Category;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Wall and CPU time per stage and named counters for one conversion, or for loading one set of
+ * mappings. Stages are also emitted as JFR events, which cost nothing unless a flight recording
+ * is running. Safe to use from multiple threads; time recorded under the same stage name adds
+ * up.
+ */
+public class Report {
+
+	@Name("com.unascribed.forgery.Stage")
+	@Label("Forgery Stage")
+	@Category("Forgery")
+	static class StageEvent extends Event {
+		@Label("Stage")
+		String stage;
+	}
+
+	public final class Stage implements AutoCloseable {
+		private final String name;
+		private final long start = System.nanoTime();
+		private final long cpuStart = cpuTime();
+		private final StageEvent event = new StageEvent();
+
+		private Stage(String name) {
+			this.name = name;
+			event.stage = name;
+			event.begin();
+		}
+
+		@Override
+		public void close() {
+			event.commit();
+			time(name, System.nanoTime()-start, cpuTime()-cpuStart);
+		}
+	}
+
+	private static final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+
+	// wall and CPU nanoseconds
+	private final Map<String, long[]> stages = new LinkedHashMap<>();
+	private final Map<String, Long> counters = new TreeMap<>();
+
+	/**
+	 * Starts timing a stage on the current thread, until the returned stage is closed. CPU time
+	 * only counts the current thread.
+	 */
+	public Stage stage(String name) {
+		return new Stage(name);
+	}
+
+	/**
+	 * Adds time to a stage. A negative CPU time means it wasn't measured.
+	 */
+	public synchronized void time(String stage, long wallNanos, long cpuNanos) {
+		long[] t = stages.computeIfAbsent(stage, k -> new long[2]);
+		t[0] += wallNanos;
+		t[1] = t[1] < 0 || cpuNanos < 0 ? -1 : t[1]+cpuNanos;
+	}
+
+	public synchronized void count(String counter, long delta) {
+		counters.merge(counter, delta, Long::sum);
+	}
+
+	public synchronized long get(String counter) {
+		return counters.getOrDefault(counter, 0L);
+	}
+
+	/**
+	 * Adds every stage and counter from the given report to this one.
+	 */
+	public void include(Report other) {
+		Map<String, long[]> otherStages;
+		Map<String, Long> otherCounters;
+		synchronized (other) {
+			otherStages = new LinkedHashMap<>(other.stages);
+			otherCounters = new TreeMap<>(other.counters);
+		}
+		otherStages.forEach((k, v) -> time(k, v[0], v[1]));
+		otherCounters.forEach(this::count);
+	}
+
+	public synchronized JsonObject toJson() {
+		JsonArray stageArr = new JsonArray();
+		for (Map.Entry<String, long[]> en : stages.entrySet()) {
+			JsonObject obj = new JsonObject();
+			obj.put("stage", en.getKey());
+			obj.put("wallMs", en.getValue()[0]/1000000.0);
+			if (en.getValue()[1] >= 0) obj.put("cpuMs", en.getValue()[1]/1000000.0);
+			stageArr.add(obj);
+		}
+		JsonObject out = new JsonObject();
+		out.put("stages", stageArr);
+		out.put("counters", new JsonObject(counters));
+		return out;
+	}
+
+	public void write(Path file) throws IOException {
+		Files.write(file, JsonWriter.indent("\t").string().value(toJson()).done().getBytes(StandardCharsets.UTF_8));
+	}
+
+	private static long cpuTime() {
+		return threads.isCurrentThreadCpuTimeSupported() ? threads.getCurrentThreadCpuTime() : 0;
+	}
+
+}
@@ -1,6 +1,17 @@
 package com.unascribed.forgery;
 
+import java.io.IOException;
 import java.io.Reader;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.cadixdev.bombe.type.MethodDescriptor;
+import org.cadixdev.bombe.type.signature.MethodSignature;
 import org.cadixdev.lorenz.MappingSet;
 import org.cadixdev.lorenz.io.TextMappingsReader;
 import org.cadixdev.lorenz.io.srg.SrgConstants;
@@ -22,6 +33,108 @@ public class TSrg2Reader extends TextMappingsReader {
 		super(reader, TSrg2Reader.Processor::new);
 	}
 
+	/**
+	 * Reads a TSRG2 file with a tokenizer that works on indices into the decoded file instead of
+	 * splitting each line with a regex, producing the same mappings as {@link Processor}. Files
+	 * that aren't TSRG2 are handed to the regular reader.
+	 */
+	public static MappingSet read(final Path path) throws IOException {
+		final CharBuffer cb;
+		try (FileChannel fc = FileChannel.open(path)) {
+			cb = StandardCharsets.UTF_8.decode(fc.map(FileChannel.MapMode.READ_ONLY, 0, fc.size()));
+		}
+		final char[] buf = cb.array();
+		final int len = cb.limit();
+		final MappingSet mappings = MappingSet.create();
+		// most descriptors repeat many times over, so only parse each one once
+		final Map<String, MethodDescriptor> descriptors = new HashMap<>();
+		// start and end of up to five space-separated fields; a sixth means the line is malformed
+		final int[] fields = new int[12];
+		ClassMapping<?, ?> currentClass = null;
+		MethodMapping currentMethod = null;
+		int lineNum = 0;
+		int pos = 0;
+		while (pos < len) {
+			int lineStart = pos;
+			int lineEnd = pos;
+			while (lineEnd < len && buf[lineEnd] != '\n') lineEnd++;
+			pos = lineEnd+1;
+			lineNum++;
+			int end = lineStart;
+			while (end < lineEnd && buf[end] != '#') end++;
+			while (end > lineStart && Character.isWhitespace(buf[end-1])) end--;
+			if (end == lineStart) continue;
+			int depth = 0;
+			while (lineStart+depth < end && buf[lineStart+depth] == '\t') depth++;
+			int count = 0;
+			int i = lineStart+depth;
+			while (i < end && count < 6) {
+				int fieldEnd = i;
+				while (fieldEnd < end && buf[fieldEnd] != ' ') fieldEnd++;
+				fields[count*2] = i;
+				fields[count*2+1] = fieldEnd;
+				count++;
+				i = fieldEnd+1;
+			}
+			try {
+				if (lineNum == 1) {
+					if (count == 4 && matches(buf, fields, 0, "tsrg2") && matches(buf, fields, 1, "obf")
+							&& matches(buf, fields, 2, "srg") && matches(buf, fields, 3, "id")) {
+						continue;
+					}
+					try (Reader r = Files.newBufferedReader(path)) {
+						return new TSrg2Reader(r).read();
+					}
+				}
+				if (end-lineStart < 3) {
+					throw new IllegalArgumentException("Faulty TSRG mapping encountered");
+				}
+				if (depth == 0 && count == 3) {
+					currentMethod = null;
+					currentClass = mappings.getOrCreateClassMapping(field(buf, fields, 0));
+					currentClass.setDeobfuscatedName(field(buf, fields, 1));
+					currentClass.set(ID, field(buf, fields, 2));
+				} else if (depth >= 2 && currentMethod != null) {
+					if (count == 4) {
+						currentMethod.createParameterMapping(Integer.parseInt(field(buf, fields, 0)), field(buf, fields, 2))
+							.set(ID, field(buf, fields, 3));
+					}
+					// anything else is a modifier such as "static"; ignore
+				} else if (depth >= 1 && currentClass != null) {
+					if (count == 3) {
+						currentMethod = null;
+						currentClass.getOrCreateFieldMapping(field(buf, fields, 0))
+							.setDeobfuscatedName(field(buf, fields, 1))
+							.set(ID, field(buf, fields, 2));
+					} else if (count == 4) {
+						MethodDescriptor desc = descriptors.computeIfAbsent(field(buf, fields, 1), MethodDescriptor::of);
+						currentMethod = currentClass.getOrCreateMethodMapping(new MethodSignature(field(buf, fields, 0), desc))
+							.setDeobfuscatedName(field(buf, fields, 2));
+						currentMethod.set(ID, field(buf, fields, 3));
+					}
+				} else {
+					throw new IllegalArgumentException("Failed to process line");
+				}
+			} catch (Throwable t) {
+				throw new IllegalArgumentException("Parse error at line "+lineNum+"\n"+new String(buf, lineStart, lineEnd-lineStart), t);
+			}
+		}
+		return mappings;
+	}
+
+	private static String field(char[] buf, int[] fields, int i) {
+		return new String(buf, fields[i*2], fields[i*2+1]-fields[i*2]);
+	}
+
+	private static boolean matches(char[] buf, int[] fields, int i, String s) {
+		int start = fields[i*2];
+		if (fields[i*2+1]-start != s.length()) return false;
+		for (int j = 0; j < s.length(); j++) {
+			if (buf[start+j] != s.charAt(j)) return false;
+		}
+		return true;
+	}
+
 	/**
 	 * The mappings processor for the TSRG format.
 	 */
@@ -33,7 +146,7 @@ public class TSrg2Reader extends TextMappingsReader {
 		private static final int METHOD_MAPPING_ELEMENT_COUNT = 4;
 		private static final int PARAMETER_MAPPING_ELEMENT_COUNT = 4;
 
-		private ClassMapping currentClass;
+		private ClassMapping<?, ?> currentClass;
 		private MethodMapping currentMethod;
 		
 		private int lineNum = 0;
@@ -10,16 +10,42 @@ import org.cadixdev.atlas.jar.JarFile;
 import org.cadixdev.atlas.util.JarRepacker;
 import org.cadixdev.bombe.analysis.InheritanceProvider;
 import org.cadixdev.bombe.asm.analysis.ClassProviderInheritanceProvider;
+import org.cadixdev.bombe.jar.AbstractJarEntry;
 import org.cadixdev.bombe.jar.ClassProvider;
+import org.cadixdev.bombe.jar.JarClassEntry;
 import org.cadixdev.bombe.jar.JarEntryTransformer;
+import org.cadixdev.bombe.jar.JarManifestEntry;
+import org.cadixdev.bombe.jar.JarResourceEntry;
+import org.cadixdev.bombe.jar.JarServiceProviderConfigurationEntry;
+import org.cadixdev.bombe.jar.ServiceProviderConfiguration;
 import org.objectweb.asm.Opcodes;
 
+import java.io.ByteArrayInputStream;
 import java.io.Closeable;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
 import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
 import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.jar.Manifest;
+import java.util.stream.Collectors;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
 
 /**
  * An Atlas describes {@link JarEntryTransformer transformations}, and an environment
@@ -33,8 +59,50 @@ import java.util.function.Function;
  */
 public class AtlasWithNewASM implements Closeable {
 
+    /**
+     * FORGERY: A store of previously transformed entries, consulted by {@link #run(Path, Path)}
+     * before running an entry through the transformers.
+     */
+    public interface EntryCache {
+
+        /**
+         * Gets the result of a previous transformation of an identical input entry.
+         *
+         * @param name The name of the input entry
+         * @param contents The raw contents of the input entry
+         * @return The previously transformed entry, or {@code null} to transform it again
+         * @throws IOException Should an issue occur reading the previous result
+         */
+        AbstractJarEntry get(String name, byte[] contents) throws IOException;
+
+        /**
+         * Records the result of transforming an input entry.
+         *
+         * @param name The name of the input entry
+         * @param contents The raw contents of the input entry
+         * @param result The transformed entry, or {@code null} if it was dropped
+         */
+        void put(String name, byte[] contents, AbstractJarEntry result);
+
+    }
+
     private final List<Function<AtlasTransformerContext, JarEntryTransformer>> transformers = new ArrayList<>();
     private final List<Path> classpath = new ArrayList<>();
+    private final List<InheritanceProvider> inheritanceProviders = new ArrayList<>();
+    private int parallelism = 1;
+    private EntryCache entryCache;
+    // FORGERY: Statistics for the last run
+    private AtomicLongArray transformerNanos = new AtomicLongArray(0);
+    private final AtomicLong entriesRead = new AtomicLong();
+    private final AtomicLong entriesCached = new AtomicLong();
+    private final AtomicLong bytesRead = new AtomicLong();
+    private final AtomicLong bytesWritten = new AtomicLong();
+    private final AtomicLong entriesMerged = new AtomicLong();
+    private final AtomicLong entriesCopied = new AtomicLong();
+    private int compressionLevel = Deflater.DEFAULT_COMPRESSION;
+    private final Map<Path, Predicate<String>> mergedJars = new LinkedHashMap<>();
+    private CompositeClassProvider classProvider;
+    private CachingInheritanceProvider classInfoCache;
 
     /**
      * Gets the classpath available to the {@link InheritanceProvider inheritance provider}.
@@ -48,6 +116,19 @@ public class AtlasWithNewASM implements Closeable {
         return this.classpath;
     }
 
+    /**
+     * Gets the inheritance providers consulted, in order, for classes that are not
+     * found in the input binary or on the {@link #getClasspath() classpath}.
+     * <p>
+     * FORGERY: This lets a single, already warm provider be shared between runs and
+     * with work done outside of the Atlas.
+     *
+     * @return The fallback inheritance providers
+     */
+    public List<InheritanceProvider> getInheritanceProviders() {
+        return this.inheritanceProviders;
+    }
+
     /**
      * Installs a {@link JarEntryTransformer transformer} to the Atlas, noting that
      * each installed transformer will be constructed once for each binary processed.
@@ -61,53 +142,229 @@ public class AtlasWithNewASM implements Closeable {
     }
 
     /**
-     * Runs the Atlas on the given input binary, saving the result to the output path.
+     * Sets how many entries {@link #run(Path, Path)} may transform at once. With a
+     * parallelism of {@code 1}, the default, every entry is transformed on the calling
+     * thread; otherwise entries are fanned out over a {@link ForkJoinPool} of that size.
+     * Either way, entries are written to the output in the order they appear in the input.
+     * <p>
+     * Installed transformers must be thread-safe if this is greater than {@code 1}.
      *
-     * @param input The input binary
-     * @param output The output binary
-     * @throws IOException Should an issue occur reading the input JAR, or
-     *                     reading the output JAR
-     * @see #run(JarFile, Path)
+     * @param parallelism The number of entries to transform concurrently
+     * @return {@code this}, for chaining
      */
-    public void run(final Path input, final Path output) throws IOException {
-        try (final JarFile jar = new JarFile(input)) {
-            this.run(jar, output);
+    public AtlasWithNewASM setParallelism(final int parallelism) {
+        if (parallelism < 1) throw new IllegalArgumentException("parallelism must be at least 1");
+        this.parallelism = parallelism;
+        return this;
+    }
+
+    /**
+     * FORGERY: Adds the entries of another jar to the output of every
+     * {@link #run(Path, Path) run}, copied without being decompressed or transformed. They replace any entries of the input with the
+     * same name, and are written after every input entry in the same pass.
+     *
+     * @param jar The jar to merge into the output
+     * @param filter Which entries of the jar to merge, by name
+     * @return {@code this}, for chaining
+     */
+    public AtlasWithNewASM merge(final Path jar, final Predicate<String> filter) {
+        this.mergedJars.put(jar, filter);
+        return this;
+    }
+
+    /**
+     * FORGERY: Sets the {@link Deflater} compression level of entries written by
+     * {@link #run(Path, Path)}. Entries copied as-is keep their compression, and a level
+     * of {@code 0} stores entries uncompressed.
+     *
+     * @param compressionLevel The compression level, from {@code 0} to {@code 9}, or
+     *                         {@link Deflater#DEFAULT_COMPRESSION}
+     * @return {@code this}, for chaining
+     */
+    public AtlasWithNewASM setCompressionLevel(final int compressionLevel) {
+        if ((compressionLevel < 0 || compressionLevel > 9) && compressionLevel != Deflater.DEFAULT_COMPRESSION) {
+            throw new IllegalArgumentException("compressionLevel must be from 0 to 9");
         }
+        this.compressionLevel = compressionLevel;
+        return this;
+    }
+
+    /**
+     * Sets the {@link EntryCache cache} consulted by {@link #run(Path, Path)}, or
+     * {@code null} to always transform every entry. The cache must be thread-safe
+     * if the {@link #setParallelism(int) parallelism} is greater than {@code 1}.
+     *
+     * @param entryCache The entry cache
+     * @return {@code this}, for chaining
+     */
+    public AtlasWithNewASM setEntryCache(final EntryCache entryCache) {
+        this.entryCache = entryCache;
+        return this;
+    }
+
+    /**
+     * FORGERY: Gets the time spent in each installed transformer during the last run, in
+     * the order they were installed, including constructing it. With a parallelism
+     * greater than {@code 1} this is summed over every thread.
+     *
+     * @return The time spent in each transformer, in nanoseconds
+     */
+    public long[] getTransformerNanos() {
+        final long[] nanos = new long[this.transformerNanos.length()];
+        for (int i = 0; i < nanos.length; i++) {
+            nanos[i] = this.transformerNanos.get(i);
+        }
+        return nanos;
+    }
+
+    /**
+     * FORGERY: Gets the number of entries read during the last run.
+     *
+     * @return The number of entries read
+     */
+    public long getEntriesRead() {
+        return this.entriesRead.get();
+    }
+
+    /**
+     * FORGERY: Gets the number of entries taken from the {@link EntryCache} during the
+     * last run, rather than being transformed.
+     *
+     * @return The number of cached entries
+     */
+    public long getEntriesCached() {
+        return this.entriesCached.get();
     }
 
     /**
-     * Runs the Atlas on the given input {@link JarFile jar}, saving the result to the
-     * given output path.
+     * FORGERY: Gets the number of entries copied from {@link #merge(Path, Predicate) merged
+     * jars} during the last run.
      *
-     * @param jar The input jar
+     * @return The number of merged entries
+     */
+    public long getEntriesMerged() {
+        return this.entriesMerged.get();
+    }
+
+    /**
+     * FORGERY: Gets the number of input entries that no transformer changed during the
+     * last run, which were copied to the output without being recompressed.
+     *
+     * @return The number of copied entries
+     */
+    public long getEntriesCopied() {
+        return this.entriesCopied.get();
+    }
+
+    /**
+     * FORGERY: Gets the uncompressed size of every entry read during the last run.
+     *
+     * @return The number of bytes read
+     */
+    public long getBytesRead() {
+        return this.bytesRead.get();
+    }
+
+    /**
+     * FORGERY: Gets the uncompressed size of every entry written during the last run.
+     *
+     * @return The number of bytes written
+     */
+    public long getBytesWritten() {
+        return this.bytesWritten.get();
+    }
+
+    /**
+     * FORGERY: Gets the provider of class bytes from the input and classpath used during
+     * the last run, for its cache statistics.
+     *
+     * @return The class provider, or {@code null} before the first run
+     */
+    public CompositeClassProvider getClassProvider() {
+        return this.classProvider;
+    }
+
+    /**
+     * FORGERY: Gets the cache of class information from the input and classpath used
+     * during the last run, for its statistics.
+     *
+     * @return The class information cache, or {@code null} before the first run
+     */
+    public CachingInheritanceProvider getClassInfoCache() {
+        return this.classInfoCache;
+    }
+
+    /**
+     * Runs the Atlas on the given input binary, saving the result to the output path.
+     *
+     * @param input The input binary
      * @param output The output binary
      * @throws IOException Should an issue occur reading the input JAR, or
      *                     reading the output JAR
+     * @see #setParallelism(int)
      */
-    public void run(final JarFile jar, final Path output) throws IOException {
+    public void run(final Path input, final Path output) throws IOException {
+        try (final JarFile jar = new JarFile(input); final ZipFile zip = new ZipFile(input.toFile())) {
+            final List<ClassProvider> classpath = this.createClasspath(jar);
+            try {
+                final List<Path> jars = new ArrayList<>();
+                jars.add(input);
+                jars.addAll(this.classpath);
+                this.transform(input, zip, output, this.createTransformers(
+                        new CompositeClassProvider(classpath, jars, CompositeClassProvider.DEFAULT_CACHE_SIZE)));
+                JarRepacker.verifyJarManifest(output);
+            } finally {
+                closeClasspath(jar, classpath);
+            }
+        }
+    }
+
+    private List<ClassProvider> createClasspath(final JarFile jar) throws IOException {
         // Create a classpath for the current JAR file
         final List<ClassProvider> classpath = new ArrayList<>();
         classpath.add(jar);
         for (final Path jarPath : this.classpath) {
             classpath.add(new JarFile(jarPath));
         }
+        return classpath;
+    }
 
+    private JarEntryTransformer[] createTransformers(final CompositeClassProvider classProvider) {
         // Create the context for the JAR file
-        final AtlasTransformerContext context = new AtlasTransformerContext(
-                new ClassProviderInheritanceProvider(Opcodes.ASM9, new CompositeClassProvider(classpath)) // FORGERY: Use ASM9
-        );
+        // FORGERY: Use ASM9, cache class info, and keep both for their statistics
+        this.classProvider = classProvider;
+        this.classInfoCache = new CachingInheritanceProvider(new ClassProviderInheritanceProvider(Opcodes.ASM9, classProvider));
+        final InheritanceProvider local = this.classInfoCache;
+        final List<InheritanceProvider> fallbacks = new ArrayList<>(this.inheritanceProviders);
+        final AtlasTransformerContext context = new AtlasTransformerContext(fallbacks.isEmpty() ? local : new InheritanceProvider() {
+            @Override
+            public Optional<ClassInfo> provide(final String klass) {
+                Optional<ClassInfo> info = local.provide(klass);
+                for (int i = 0; !info.isPresent() && i < fallbacks.size(); i++) {
+                    info = fallbacks.get(i).provide(klass);
+                }
+                return info;
+            }
+        });
 
         // Construct the transformers
         final JarEntryTransformer[] transformers = new JarEntryTransformer[this.transformers.size()];
+        this.transformerNanos = new AtomicLongArray(transformers.length);
+        this.entriesRead.set(0);
+        this.entriesCached.set(0);
+        this.bytesRead.set(0);
+        this.bytesWritten.set(0);
+        this.entriesMerged.set(0);
+        this.entriesCopied.set(0);
         for (int i = 0; i < this.transformers.size(); i++) {
+            final long start = System.nanoTime();
             transformers[i] = this.transformers.get(i).apply(context);
+            this.transformerNanos.addAndGet(i, System.nanoTime() - start);
         }
+        return transformers;
+    }
 
-        // Transform the JAR, and save to the output path
-        jar.transform(output, transformers);
-
-        JarRepacker.verifyJarManifest(output);
-
+    private static void closeClasspath(final JarFile jar, final List<ClassProvider> classpath) throws IOException {
         // Close the JarFiles we made earlier
         for (final ClassProvider classProvider : classpath) {
             if (classProvider == jar) continue;
@@ -117,14 +374,152 @@ public class AtlasWithNewASM implements Closeable {
         }
     }
 
+    private void transform(final Path input, final ZipFile zip, final Path output, final JarEntryTransformer[] transformers) throws IOException {
+        final List<? extends ZipEntry> entries = zip.stream()
+                .filter(entry -> !entry.isDirectory())
+                .collect(Collectors.toList());
+        final Set<String> written = new HashSet<>();
+        final List<RawZipFile> merged = new ArrayList<>();
+        try (final RawZipFile raw = new RawZipFile(input); final ZipWriter out = new ZipWriter(output, this.compressionLevel)) {
+            // FORGERY: Entries of merged jars replace input entries of the same name, and are
+            // copied as-is after everything else
+            final Set<String> replaced = new HashSet<>();
+            for (final Map.Entry<Path, Predicate<String>> jar : this.mergedJars.entrySet()) {
+                final RawZipFile mergedJar = new RawZipFile(jar.getKey());
+                merged.add(mergedJar);
+                for (final RawZipFile.Entry entry : mergedJar.getEntries()) {
+                    if (jar.getValue().test(entry.getName())) replaced.add(entry.getName());
+                }
+            }
+            this.transform(zip, raw, entries, transformers, out, written, replaced);
+            for (final RawZipFile jar : merged) {
+                final Predicate<String> filter = this.mergedJars.get(jar.getPath());
+                for (final RawZipFile.Entry entry : jar.getEntries()) {
+                    if (!filter.test(entry.getName()) || !written.add(entry.getName())) continue;
+                    out.copy(jar, entry);
+                    this.entriesMerged.incrementAndGet();
+                }
+            }
+        } finally {
+            for (final RawZipFile jar : merged) {
+                jar.close();
+            }
+        }
+    }
+
+    private void transform(final ZipFile zip, final RawZipFile raw, final List<? extends ZipEntry> entries, final JarEntryTransformer[] transformers,
+            final ZipWriter out, final Set<String> written, final Set<String> replaced) throws IOException {
+        // FORGERY: Entries that come out of the transformers exactly as they went in are
+        // copied from the input still compressed
+        final Set<String> untouched = ConcurrentHashMap.newKeySet();
+        if (this.parallelism == 1) {
+            for (final ZipEntry entry : entries) {
+                this.write(out, raw, written, replaced, untouched, this.transform(zip, entry, transformers, untouched));
+            }
+            return;
+        }
+        final ForkJoinPool pool = new ForkJoinPool(this.parallelism);
+        try {
+            final List<Future<AbstractJarEntry>> results = new ArrayList<>(entries.size());
+            for (final ZipEntry entry : entries) {
+                results.add(pool.submit(() -> this.transform(zip, entry, transformers, untouched)));
+            }
+            // Futures are joined in input order, so the output is deterministic while
+            // later entries keep transforming in the background
+            for (final Future<AbstractJarEntry> result : results) {
+                this.write(out, raw, written, replaced, untouched, result.get());
+            }
+        } catch (final InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while transforming " + zip.getName(), ex);
+        } catch (final ExecutionException ex) {
+            final Throwable cause = ex.getCause();
+            if (cause instanceof IOException) throw (IOException) cause;
+            if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+            if (cause instanceof Error) throw (Error) cause;
+            throw new IOException(cause);
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private AbstractJarEntry transform(final ZipFile zip, final ZipEntry entry, final JarEntryTransformer[] transformers, final Set<String> untouched) {
+        try {
+            final byte[] contents;
+            try (final InputStream in = zip.getInputStream(entry)) {
+                contents = in.readAllBytes();
+            }
+            this.entriesRead.incrementAndGet();
+            this.bytesRead.addAndGet(contents.length);
+            if (this.entryCache != null) {
+                final AbstractJarEntry cached = this.entryCache.get(entry.getName(), contents);
+                if (cached != null) {
+                    this.entriesCached.incrementAndGet();
+                    return cached;
+                }
+            }
+            AbstractJarEntry jarEntry = read(entry.getName(), entry.getTime(), contents);
+            for (int i = 0; i < transformers.length && jarEntry != null; i++) {
+                final long start = System.nanoTime();
+                jarEntry = jarEntry.accept(transformers[i]);
+                this.transformerNanos.addAndGet(i, System.nanoTime() - start);
+            }
+            if ((jarEntry instanceof JarResourceEntry || jarEntry instanceof JarClassEntry)
+                    && jarEntry.getName().equals(entry.getName()) && jarEntry.getContents() == contents) {
+                untouched.add(entry.getName());
+            }
+            if (this.entryCache != null) {
+                this.entryCache.put(entry.getName(), contents, jarEntry);
+            }
+            return jarEntry;
+        } catch (final IOException ex) {
+            throw new UncheckedIOException("Failed to read " + entry.getName(), ex);
+        }
+    }
+
+    private static AbstractJarEntry read(final String name, final long time, final byte[] contents) throws IOException {
+        if (name.equals("META-INF/MANIFEST.MF")) {
+            return new JarManifestEntry(time, new Manifest(new ByteArrayInputStream(contents)));
+        }
+        if (name.startsWith("META-INF/services/")) {
+            final ServiceProviderConfiguration config = new ServiceProviderConfiguration(name.substring("META-INF/services/".length()));
+            config.read(new ByteArrayInputStream(contents));
+            return new JarServiceProviderConfigurationEntry(time, config);
+        }
+        if (name.endsWith(".class")) {
+            return new JarClassEntry(name, time, contents);
+        }
+        return new JarResourceEntry(name, time, contents);
+    }
+
+    private void write(final ZipWriter out, final RawZipFile raw, final Set<String> written, final Set<String> replaced,
+            final Set<String> untouched, final AbstractJarEntry entry) throws IOException {
+        if (entry == null || replaced.contains(entry.getName())) return;
+        if (!written.add(entry.getName())) {
+            System.err.println("Skipping duplicate entry " + entry.getName());
+            return;
+        }
+        final RawZipFile.Entry rawEntry = untouched.contains(entry.getName()) ? raw.getEntry(entry.getName()) : null;
+        if (rawEntry != null) {
+            this.bytesWritten.addAndGet(rawEntry.getSize());
+            this.entriesCopied.incrementAndGet();
+            out.copy(raw, rawEntry);
+            return;
+        }
+        final byte[] contents = entry.getContents();
+        this.bytesWritten.addAndGet(contents.length);
+        out.write(entry.getName(), entry.getTime(), contents);
+    }
+
     /**
      * {@inheritDoc}
      *
-     * <strong>Note that this will clear the classpath!</strong>
+     * <strong>Note that this will clear the classpath and inheritance providers!</strong>
      */
     @Override
     public void close() throws IOException {
         this.classpath.clear();
+        this.inheritanceProviders.clear();
     }
 
 }
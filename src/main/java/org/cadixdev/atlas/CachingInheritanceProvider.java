@@ -0,0 +1,79 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package org.cadixdev.atlas;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.cadixdev.bombe.analysis.InheritanceProvider;
+
+/**
+ * An {@link InheritanceProvider inheritance provider} that keeps the most recently
+ * provided {@link ClassInfo class information} of another provider in a bounded LRU
+ * cache, so repeated queries for the same class don't parse it again. Negative results
+ * are cached too.
+ */
+public class CachingInheritanceProvider implements InheritanceProvider {
+
+    /**
+     * The default number of classes whose information is kept in memory.
+     */
+    public static final int DEFAULT_CACHE_SIZE = 16384;
+
+    private final InheritanceProvider provider;
+    private final Map<String, Optional<ClassInfo>> cache;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    public CachingInheritanceProvider(final InheritanceProvider provider) {
+        this(provider, DEFAULT_CACHE_SIZE);
+    }
+
+    public CachingInheritanceProvider(final InheritanceProvider provider, final int cacheSize) {
+        this.provider = provider;
+        this.cache = new LinkedHashMap<String, Optional<ClassInfo>>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(final Map.Entry<String, Optional<ClassInfo>> eldest) {
+                return this.size() > cacheSize;
+            }
+        };
+    }
+
+    @Override
+    public Optional<ClassInfo> provide(final String klass) {
+        synchronized (this.cache) {
+            final Optional<ClassInfo> cached = this.cache.get(klass);
+            if (cached != null) {
+                this.hits.incrementAndGet();
+                return cached;
+            }
+        }
+        this.misses.incrementAndGet();
+        final Optional<ClassInfo> info = this.provider.provide(klass);
+        synchronized (this.cache) {
+            this.cache.put(klass, info);
+        }
+        return info;
+    }
+
+    /**
+     * @return The number of queries answered from the cache
+     */
+    public long getHits() {
+        return this.hits.get();
+    }
+
+    /**
+     * @return The number of queries passed on to the underlying provider
+     */
+    public long getMisses() {
+        return this.misses.get();
+    }
+
+}
@@ -6,8 +6,13 @@
 
 package org.cadixdev.atlas;
 
-
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.cadixdev.bombe.asm.jar.ClassProvider;
 
@@ -15,25 +20,132 @@ import org.cadixdev.bombe.asm.jar.ClassProvider;
 
 /**
  * A {@link ClassProvider class provider} backed by many other class providers.
+ * <p>
+ * FORGERY: Remembers which provider each class came from (or that none had it), and
+ * keeps the most recently requested class bytes in a bounded LRU cache. When the jar
+ * behind each provider is known, that index is built once up front instead.
  *
  * @author Jamie Mansfield
  * @since 0.1.0
  */
 public class CompositeClassProvider implements ClassProvider {
 
+    /**
+     * The default number of classes whose bytes are kept in memory.
+     */
+    public static final int DEFAULT_CACHE_SIZE = 1024;
+
+    private static final int NOT_FOUND = -1;
+
     private final List<org.cadixdev.bombe.jar.ClassProvider> providers;
+    private final Map<String, Integer> index = new ConcurrentHashMap<>();
+    private final Map<String, byte[]> cache;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    // whether every class any provider has is in the index
+    private final boolean indexed;
 
     public CompositeClassProvider(final List<org.cadixdev.bombe.jar.ClassProvider> providers) {
+        this(providers, DEFAULT_CACHE_SIZE);
+    }
+
+    /**
+     * FORGERY: Creates a provider over the given jars, indexing which of them has each class
+     * from their central directories, so lookups go straight to the right provider and
+     * classes none of them have are answered without asking any. Should a jar not be
+     * readable as a {@link RawZipFile}, the index is filled in lazily instead.
+     *
+     * @param providers The providers
+     * @param jars The jar behind each provider, in the same order
+     * @param cacheSize The number of classes whose bytes are kept in memory
+     */
+    public CompositeClassProvider(final List<org.cadixdev.bombe.jar.ClassProvider> providers, final List<Path> jars, final int cacheSize) {
         this.providers = providers;
+        this.cache = createCache(cacheSize);
+        if (jars.size() != providers.size()) throw new IllegalArgumentException("Expected a jar for each provider");
+        boolean indexed = true;
+        try {
+            for (int i = 0; i < jars.size(); i++) {
+                try (final RawZipFile zip = new RawZipFile(jars.get(i))) {
+                    for (final RawZipFile.Entry entry : zip.getEntries()) {
+                        final String name = entry.getName();
+                        if (!name.endsWith(".class") || name.startsWith("META-INF/")) continue;
+                        // earlier providers win, as they would when asked in order
+                        this.index.putIfAbsent(name.substring(0, name.length() - 6), i);
+                    }
+                }
+            }
+        } catch (final IOException ex) {
+            this.index.clear();
+            indexed = false;
+        }
+        this.indexed = indexed;
+    }
+
+    public CompositeClassProvider(final List<org.cadixdev.bombe.jar.ClassProvider> providers, final int cacheSize) {
+        this.providers = providers;
+        this.cache = createCache(cacheSize);
+        this.indexed = false;
+    }
+
+    private static Map<String, byte[]> createCache(final int cacheSize) {
+        return new LinkedHashMap<String, byte[]>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(final Map.Entry<String, byte[]> eldest) {
+                return this.size() > cacheSize;
+            }
+        };
     }
 
     @Override
     public byte[] get(final String klass) {
-        for (final org.cadixdev.bombe.jar.ClassProvider provider : this.providers) {
-            final byte[] raw = provider.get(klass);
-            if (raw != null) return raw;
+        synchronized (this.cache) {
+            final byte[] cached = this.cache.get(klass);
+            if (cached != null) {
+                this.hits.incrementAndGet();
+                return cached;
+            }
         }
+        this.misses.incrementAndGet();
+
+        final Integer known = this.index.get(klass);
+        if (known != null) {
+            if (known == NOT_FOUND) return null;
+            return this.cache(klass, this.providers.get(known).get(klass));
+        }
+        if (this.indexed) return null;
+        for (int i = 0; i < this.providers.size(); i++) {
+            final byte[] raw = this.providers.get(i).get(klass);
+            if (raw != null) {
+                this.index.put(klass, i);
+                return this.cache(klass, raw);
+            }
+        }
+        this.index.put(klass, NOT_FOUND);
         return null;
     }
 
+    private byte[] cache(final String klass, final byte[] raw) {
+        if (raw != null) {
+            synchronized (this.cache) {
+                this.cache.put(klass, raw);
+            }
+        }
+        return raw;
+    }
+
+    /**
+     * @return The number of lookups answered from the byte cache
+     */
+    public long getHits() {
+        return this.hits.get();
+    }
+
+    /**
+     * @return The number of lookups that had to consult the underlying providers
+     */
+    public long getMisses() {
+        return this.misses.get();
+    }
+
 }
@@ -0,0 +1,228 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package org.cadixdev.atlas;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A zip file read straight from its central directory, giving access to the still
+ * compressed data of each entry so it can be copied into another zip as-is with a
+ * {@link ZipWriter}.
+ * <p>
+ * Only what jars need is supported: no ZIP64, encryption or multi-disk archives.
+ */
+public class RawZipFile implements Closeable {
+
+    private static final int LOCAL_HEADER = 0x04034b50;
+    private static final int CENTRAL_HEADER = 0x02014b50;
+    private static final int END_OF_CENTRAL_DIRECTORY = 0x06054b50;
+
+    /**
+     * An entry in the central directory of a {@link RawZipFile}.
+     */
+    public static final class Entry {
+
+        private final String name;
+        private final int method;
+        private final int dosTime;
+        private final int crc;
+        private final long compressedSize;
+        private final long size;
+        private final long localHeaderOffset;
+
+        Entry(final String name, final int method, final int dosTime, final int crc,
+                final long compressedSize, final long size, final long localHeaderOffset) {
+            this.name = name;
+            this.method = method;
+            this.dosTime = dosTime;
+            this.crc = crc;
+            this.compressedSize = compressedSize;
+            this.size = size;
+            this.localHeaderOffset = localHeaderOffset;
+        }
+
+        public String getName() {
+            return this.name;
+        }
+
+        public boolean isDirectory() {
+            return this.name.endsWith("/");
+        }
+
+        /**
+         * @return The compression method, as stored in the zip
+         */
+        public int getMethod() {
+            return this.method;
+        }
+
+        /**
+         * @return The MS-DOS time and date, in the low and high 16 bits respectively
+         */
+        public int getDosTime() {
+            return this.dosTime;
+        }
+
+        public int getCrc() {
+            return this.crc;
+        }
+
+        public long getCompressedSize() {
+            return this.compressedSize;
+        }
+
+        public long getSize() {
+            return this.size;
+        }
+
+        /**
+         * @return The offset of the entry's local header from the start of the zip
+         */
+        public long getLocalHeaderOffset() {
+            return this.localHeaderOffset;
+        }
+
+    }
+
+    private final Path path;
+    private final FileChannel channel;
+    private final List<Entry> entries;
+    private final Map<String, Entry> byName;
+
+    public RawZipFile(final Path path) throws IOException {
+        this.path = path;
+        this.channel = FileChannel.open(path);
+        try {
+            this.entries = Collections.unmodifiableList(this.readCentralDirectory());
+        } catch (final IOException | RuntimeException ex) {
+            this.channel.close();
+            throw ex;
+        }
+        this.byName = new HashMap<>();
+        for (final Entry entry : this.entries) {
+            this.byName.putIfAbsent(entry.name, entry);
+        }
+    }
+
+    public Path getPath() {
+        return this.path;
+    }
+
+    /**
+     * @return Every entry, in central directory order
+     */
+    public List<Entry> getEntries() {
+        return this.entries;
+    }
+
+    /**
+     * @param name The entry name
+     * @return The entry, or {@code null} if there is none by that name
+     */
+    public Entry getEntry(final String name) {
+        return this.byName.get(name);
+    }
+
+    /**
+     * Copies the compressed data of an entry to the given channel, without its headers.
+     *
+     * @param entry The entry
+     * @param target The channel to write to
+     * @throws IOException Should an issue occur reading the entry or writing it out
+     */
+    public void transferRaw(final Entry entry, final WritableByteChannel target) throws IOException {
+        final ByteBuffer header = ByteBuffer.allocate(30).order(ByteOrder.LITTLE_ENDIAN);
+        readFully(header, entry.localHeaderOffset);
+        if (header.getInt(0) != LOCAL_HEADER) {
+            throw new IOException("Bad local header for " + entry.name + " in " + this.path);
+        }
+        long position = entry.localHeaderOffset + 30 + (header.getShort(26) & 0xFFFF) + (header.getShort(28) & 0xFFFF);
+        long remaining = entry.compressedSize;
+        while (remaining > 0) {
+            final long n = this.channel.transferTo(position, remaining, target);
+            if (n <= 0) throw new IOException("Unexpected end of " + this.path);
+            position += n;
+            remaining -= n;
+        }
+    }
+
+    private List<Entry> readCentralDirectory() throws IOException {
+        final long size = this.channel.size();
+        final int tailSize = (int) Math.min(size, 0xFFFF + 22);
+        final ByteBuffer tail = ByteBuffer.allocate(tailSize).order(ByteOrder.LITTLE_ENDIAN);
+        readFully(tail, size - tailSize);
+        int eocd = -1;
+        for (int i = tailSize - 22; i >= 0; i--) {
+            if (tail.getInt(i) == END_OF_CENTRAL_DIRECTORY) {
+                eocd = i;
+                break;
+            }
+        }
+        if (eocd == -1) throw new IOException(this.path + " is not a zip file");
+        final int count = tail.getShort(eocd + 10) & 0xFFFF;
+        final long directorySize = tail.getInt(eocd + 12) & 0xFFFFFFFFL;
+        final long directoryOffset = tail.getInt(eocd + 16) & 0xFFFFFFFFL;
+        if (count == 0xFFFF || directoryOffset == 0xFFFFFFFFL) {
+            throw new IOException(this.path + " is a ZIP64 archive, which is not supported");
+        }
+        final ByteBuffer directory = ByteBuffer.allocate((int) directorySize).order(ByteOrder.LITTLE_ENDIAN);
+        readFully(directory, directoryOffset);
+        final List<Entry> entries = new ArrayList<>(count);
+        int pos = 0;
+        for (int i = 0; i < count; i++) {
+            if (directory.getInt(pos) != CENTRAL_HEADER) {
+                throw new IOException("Bad central directory in " + this.path);
+            }
+            final int flags = directory.getShort(pos + 8) & 0xFFFF;
+            if ((flags & 1) != 0) throw new IOException(this.path + " is encrypted");
+            final int nameLength = directory.getShort(pos + 28) & 0xFFFF;
+            final int extraLength = directory.getShort(pos + 30) & 0xFFFF;
+            final int commentLength = directory.getShort(pos + 32) & 0xFFFF;
+            final byte[] name = new byte[nameLength];
+            directory.position(pos + 46);
+            directory.get(name);
+            entries.add(new Entry(
+                    new String(name, StandardCharsets.UTF_8),
+                    directory.getShort(pos + 10) & 0xFFFF,
+                    (directory.getShort(pos + 12) & 0xFFFF) | (directory.getShort(pos + 14) << 16),
+                    directory.getInt(pos + 16),
+                    directory.getInt(pos + 20) & 0xFFFFFFFFL,
+                    directory.getInt(pos + 24) & 0xFFFFFFFFL,
+                    directory.getInt(pos + 42) & 0xFFFFFFFFL
+            ));
+            pos += 46 + nameLength + extraLength + commentLength;
+        }
+        return entries;
+    }
+
+    private void readFully(final ByteBuffer buf, long position) throws IOException {
+        while (buf.hasRemaining()) {
+            final int n = this.channel.read(buf, position);
+            if (n < 0) throw new IOException("Unexpected end of " + this.path);
+            position += n;
+        }
+        buf.flip();
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.channel.close();
+    }
+
+}
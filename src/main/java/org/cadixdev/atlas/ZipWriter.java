@@ -0,0 +1,200 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package org.cadixdev.atlas;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+
+/**
+ * Writes a zip file directly to a {@link FileChannel}, either deflating entries itself or
+ * copying the compressed data of entries in a {@link RawZipFile} as-is.
+ * <p>
+ * Sizes and CRCs are always known before an entry is written, so no data descriptors are
+ * used. Only what jars need is supported: no ZIP64, comments or extra fields.
+ */
+public class ZipWriter implements Closeable {
+
+    private static final int LOCAL_HEADER = 0x04034b50;
+    private static final int CENTRAL_HEADER = 0x02014b50;
+    private static final int END_OF_CENTRAL_DIRECTORY = 0x06054b50;
+    // names are always UTF-8
+    private static final int FLAGS = 0x0800;
+
+    private final FileChannel channel;
+    private final ByteBuffer buffer = ByteBuffer.allocate(65536).order(ByteOrder.LITTLE_ENDIAN);
+    private final ByteArrayOutputStream centralDirectory = new ByteArrayOutputStream();
+    private final Deflater deflater;
+    private final boolean store;
+    private final CRC32 crc = new CRC32();
+    private long position;
+    private int count;
+
+    /**
+     * Creates a writer, replacing any existing file at the given path.
+     *
+     * @param path The zip to write
+     * @param level The {@link Deflater} compression level for entries written from bytes,
+     *              where {@code 0} stores them uncompressed
+     * @throws IOException Should an issue occur opening the file
+     */
+    public ZipWriter(final Path path, final int level) throws IOException {
+        this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        this.deflater = new Deflater(level, true);
+        this.store = level == 0;
+    }
+
+    /**
+     * Compresses and writes an entry.
+     *
+     * @param name The entry name
+     * @param time The modification time, in milliseconds since the epoch
+     * @param contents The uncompressed contents
+     * @throws IOException Should an issue occur writing the entry
+     */
+    public void write(final String name, final long time, final byte[] contents) throws IOException {
+        this.crc.reset();
+        this.crc.update(contents);
+        if (this.store) {
+            this.writeLocalHeader(name, ZipEntry.STORED, toDosTime(time), (int) this.crc.getValue(), contents.length, contents.length);
+            this.flush();
+            this.writeFully(ByteBuffer.wrap(contents));
+            this.position += contents.length;
+            return;
+        }
+        this.deflater.reset();
+        this.deflater.setInput(contents);
+        this.deflater.finish();
+        final ByteArrayOutputStream deflated = new ByteArrayOutputStream(Math.max(64, contents.length / 2));
+        final byte[] chunk = new byte[8192];
+        while (!this.deflater.finished()) {
+            final int n = this.deflater.deflate(chunk);
+            deflated.write(chunk, 0, n);
+        }
+        this.writeLocalHeader(name, ZipEntry.DEFLATED, toDosTime(time), (int) this.crc.getValue(), deflated.size(), contents.length);
+        this.flush();
+        this.writeFully(ByteBuffer.wrap(deflated.toByteArray()));
+        this.position += deflated.size();
+    }
+
+    /**
+     * Copies an entry of another zip without decompressing it.
+     *
+     * @param zip The zip to copy from
+     * @param entry The entry to copy
+     * @throws IOException Should an issue occur reading or writing the entry
+     */
+    public void copy(final RawZipFile zip, final RawZipFile.Entry entry) throws IOException {
+        this.writeLocalHeader(entry.getName(), entry.getMethod(), entry.getDosTime(), entry.getCrc(), entry.getCompressedSize(), entry.getSize());
+        this.flush();
+        zip.transferRaw(entry, this.channel);
+        this.position += entry.getCompressedSize();
+    }
+
+    private void writeLocalHeader(final String name, final int method, final int dosTime, final int crc,
+            final long compressedSize, final long size) throws IOException {
+        if (this.count == 0xFFFF || this.position > 0xFFFFFFFFL - compressedSize || size > 0xFFFFFFFFL) {
+            throw new IOException("Output is too large; ZIP64 is not supported");
+        }
+        final byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+        final ByteBuffer header = ByteBuffer.allocate(46 + nameBytes.length).order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(CENTRAL_HEADER)
+                .putShort((short) 20)
+                .putShort((short) 20)
+                .putShort((short) FLAGS)
+                .putShort((short) method)
+                .putInt(dosTime)
+                .putInt(crc)
+                .putInt((int) compressedSize)
+                .putInt((int) size)
+                .putShort((short) nameBytes.length)
+                .putShort((short) 0)
+                .putShort((short) 0)
+                .putShort((short) 0)
+                .putShort((short) 0)
+                .putInt(0)
+                .putInt((int) this.position)
+                .put(nameBytes);
+        this.centralDirectory.write(header.array(), 0, header.position());
+        this.count++;
+
+        this.ensureSpace(30 + nameBytes.length);
+        this.buffer.putInt(LOCAL_HEADER)
+                .putShort((short) 20)
+                .putShort((short) FLAGS)
+                .putShort((short) method)
+                .putInt(dosTime)
+                .putInt(crc)
+                .putInt((int) compressedSize)
+                .putInt((int) size)
+                .putShort((short) nameBytes.length)
+                .putShort((short) 0)
+                .put(nameBytes);
+        this.position += 30 + nameBytes.length;
+    }
+
+    private void ensureSpace(final int bytes) throws IOException {
+        if (this.buffer.remaining() < bytes) this.flush();
+    }
+
+    private void flush() throws IOException {
+        this.buffer.flip();
+        this.writeFully(this.buffer);
+        this.buffer.clear();
+    }
+
+    private void writeFully(final ByteBuffer buf) throws IOException {
+        while (buf.hasRemaining()) {
+            this.channel.write(buf);
+        }
+    }
+
+    private static int toDosTime(final long time) {
+        final LocalDateTime ldt = LocalDateTime.ofInstant(Instant.ofEpochMilli(time), ZoneId.systemDefault());
+        if (ldt.getYear() < 1980) return (1 << 21) | (1 << 16);
+        return ((ldt.getYear() - 1980) << 25) | (ldt.getMonthValue() << 21) | (ldt.getDayOfMonth() << 16)
+                | (ldt.getHour() << 11) | (ldt.getMinute() << 5) | (ldt.getSecond() >> 1);
+    }
+
+    /**
+     * Writes the central directory and closes the file.
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            final long directoryOffset = this.position;
+            this.flush();
+            this.writeFully(ByteBuffer.wrap(this.centralDirectory.toByteArray()));
+            this.ensureSpace(22);
+            this.buffer.putInt(END_OF_CENTRAL_DIRECTORY)
+                    .putShort((short) 0)
+                    .putShort((short) 0)
+                    .putShort((short) this.count)
+                    .putShort((short) this.count)
+                    .putInt(this.centralDirectory.size())
+                    .putInt((int) directoryOffset)
+                    .putShort((short) 0);
+            this.flush();
+        } finally {
+            this.deflater.end();
+            this.channel.close();
+        }
+    }
+
+}
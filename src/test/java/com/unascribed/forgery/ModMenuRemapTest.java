@@ -0,0 +1,56 @@
+package com.unascribed.forgery;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import org.cadixdev.bombe.analysis.InheritanceProvider;
+import org.cadixdev.bombe.asm.analysis.ClassProviderInheritanceProvider;
+import org.cadixdev.lorenz.MappingSet;
+import org.junit.Test;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.commons.ClassRemapper;
+import org.objectweb.asm.commons.Remapper;
+import org.objectweb.asm.tree.ClassNode;
+
+public class ModMenuRemapTest {
+
+	private static final InheritanceProvider NO_CLASSES = new ClassProviderInheritanceProvider(Opcodes.ASM9, klass -> null);
+
+	@Test
+	public void lorenzRedirectsModMenuApi() {
+		check(Forgery.createRemapper(MappingSet.create(), null, NO_CLASSES, "com/example/forgery"));
+	}
+
+	@Test
+	public void tableRedirectsModMenuApi() {
+		check(Forgery.createRemapper(null, MappingTable.of(MappingSet.create()), NO_CLASSES, "com/example/forgery"));
+	}
+
+	private static void check(Remapper remapper) {
+		for (String api : new String[] { "io/github/prospector/modmenu/api", "com/terraformersmc/modmenu/api" }) {
+			ClassNode node = new ClassNode();
+			new ClassReader(modMenuIntegration(api)).accept(new ClassRemapper(node, remapper), 0);
+			assertArrayEquals(new String[] { "com/example/forgery/ModMenuAdapter" }, node.interfaces.toArray());
+			assertEquals("()Lcom/example/forgery/ConfigScreenFactory;", node.methods.get(0).desc);
+			// the mod's own classes keep their names
+			assertEquals("com/example/mod/ModMenuIntegration", node.name);
+		}
+	}
+
+	private static byte[] modMenuIntegration(String api) {
+		ClassWriter cw = new ClassWriter(0);
+		cw.visit(Opcodes.V1_8, Opcodes.ACC_PUBLIC, "com/example/mod/ModMenuIntegration", null, "java/lang/Object",
+				new String[] { api+"/ModMenuApi" });
+		MethodVisitor mv = cw.visitMethod(Opcodes.ACC_PUBLIC, "getModConfigScreenFactory", "()L"+api+"/ConfigScreenFactory;", null, null);
+		mv.visitInsn(Opcodes.ACONST_NULL);
+		mv.visitInsn(Opcodes.ARETURN);
+		mv.visitMaxs(1, 1);
+		mv.visitEnd();
+		cw.visitEnd();
+		return cw.toByteArray();
+	}
+
+}
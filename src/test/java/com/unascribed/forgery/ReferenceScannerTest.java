@@ -0,0 +1,72 @@
+package com.unascribed.forgery;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.Test;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+
+public class ReferenceScannerTest {
+
+	@Test
+	public void classFindsObjectsAfterPrimitives() {
+		ReferenceScanner scanner = new ReferenceScanner();
+		scanner.scanClass(mixin());
+		assertEquals(new HashSet<>(Arrays.asList(
+				"com/example/mod/ExampleMixin", "java/lang/Object", "java/util/List",
+				"net/minecraft/class_1", "net/minecraft/class_2", "net/minecraft/class_3",
+				"net/minecraft/class_4", "net/minecraft/class_5", "net/minecraft/class_6$class_7",
+				"net/minecraft/class_8")),
+				scanner.getClasses());
+		assertEquals(new ReferenceScanner.MemberRef("net/minecraft/class_8", "method_1", "(ILnet/minecraft/class_1;)V"),
+				scanner.getMembers().iterator().next());
+	}
+
+	@Test
+	public void refmapTargetFindsObjectsAfterPrimitives() {
+		ReferenceScanner scanner = new ReferenceScanner();
+		scanner.scanRefmapTarget("Lnet/minecraft/class_8;method_1(ILnet/minecraft/class_1;)V");
+		scanner.scanRefmapTarget("method_2(J[ZLnet/minecraft/class_2;)Lnet/minecraft/class_3;");
+		scanner.scanRefmapTarget("Lnet/minecraft/class_8;field_1:[[Lnet/minecraft/class_4;");
+		scanner.scanRefmapTarget("net/minecraft/class_5");
+		assertEquals(new HashSet<>(Arrays.asList(
+				"net/minecraft/class_1", "net/minecraft/class_2", "net/minecraft/class_3",
+				"net/minecraft/class_4", "net/minecraft/class_5", "net/minecraft/class_8")),
+				scanner.getClasses());
+	}
+
+	@Test
+	public void accessWidenerFindsObjectsAfterPrimitives() {
+		ReferenceScanner scanner = new ReferenceScanner();
+		scanner.scanAccessWidener("accessible method net/minecraft/class_8 method_1 (IZLnet/minecraft/class_1;)V # comment");
+		assertEquals(new HashSet<>(Arrays.asList("net/minecraft/class_8", "net/minecraft/class_1")), scanner.getClasses());
+		Set<ReferenceScanner.MemberRef> members = scanner.getMembers();
+		assertEquals(1, members.size());
+	}
+
+	private static byte[] mixin() {
+		ClassWriter cw = new ClassWriter(0);
+		cw.visit(Opcodes.V1_8, Opcodes.ACC_PUBLIC, "com/example/mod/ExampleMixin", null, "java/lang/Object", null);
+		MethodVisitor mv = cw.visitMethod(Opcodes.ACC_PRIVATE, "onTick", "(J[ZLnet/minecraft/class_2;)Lnet/minecraft/class_3;",
+				"(JLjava/util/List<Lnet/minecraft/class_4;>;Lnet/minecraft/class_6$class_7;)Lnet/minecraft/class_5;", null);
+		// string constants that only look like descriptors aren't references
+		mv.visitLdcInsn("Lnot/a/Class; or a descriptor");
+		mv.visitLdcInsn("(Lnot/a/Method");
+		mv.visitInsn(Opcodes.POP2);
+		mv.visitInsn(Opcodes.ICONST_0);
+		mv.visitInsn(Opcodes.ACONST_NULL);
+		mv.visitMethodInsn(Opcodes.INVOKESTATIC, "net/minecraft/class_8", "method_1", "(ILnet/minecraft/class_1;)V", false);
+		mv.visitInsn(Opcodes.ACONST_NULL);
+		mv.visitInsn(Opcodes.ARETURN);
+		mv.visitMaxs(2, 4);
+		mv.visitEnd();
+		cw.visitEnd();
+		return cw.toByteArray();
+	}
+
+}
@@ -0,0 +1,119 @@
+package com.unascribed.forgery;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.function.Function;
+
+import org.junit.Test;
+
+/**
+ * Checks the Fabrication text refmaps come out exactly as the original line-by-line loops wrote
+ * them, whatever the number of lines and threads.
+ */
+public class TextRefmapTest {
+
+	private static final Function<String, String> REMAP = ref -> ref.startsWith("keep") ? null : "srg_"+ref;
+
+	private static final String[] ABS_LINES = {
+		"a/Mixin method_1",
+		"no-reference",
+		"b/Mixin keep_this",
+		"c/Mixin field_2",
+		"d/Mixin class_3",
+	};
+
+	private static final String[] REL_LINES = {
+		"a/Mixin",
+		"inject method_1\tredirect keep_this",
+		"b/Mixin",
+		"at field_2",
+		"c/Mixin",
+	};
+
+	@Test
+	public void absMatchesBaseline() throws IOException {
+		for (int count = 0; count <= ABS_LINES.length; count++) {
+			for (String str : inputs(ABS_LINES, count)) {
+				String expected = baselineAbs(str);
+				assertEquals(str, expected, Forgery.remapFabAbsRefMap(str, 1, REMAP));
+				assertEquals(str, expected, Forgery.remapFabAbsRefMap(str, 4, REMAP));
+			}
+		}
+	}
+
+	@Test
+	public void relMatchesBaseline() throws IOException {
+		for (int count = 0; count <= REL_LINES.length; count++) {
+			for (String str : inputs(REL_LINES, count)) {
+				String expected = baselineRel(str);
+				assertEquals(str, expected, Forgery.remapFabRelRefMap(str, 1, REMAP));
+				assertEquals(str, expected, Forgery.remapFabRelRefMap(str, 4, REMAP));
+			}
+		}
+	}
+
+	/**
+	 * @return the first {@code count} lines, with and without a trailing line break
+	 */
+	private static String[] inputs(String[] lines, int count) {
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < count; i++) {
+			if (i > 0) sb.append('\n');
+			sb.append(lines[i]);
+		}
+		return new String[] { sb.toString(), sb+"\n" };
+	}
+
+	private static String baselineAbs(String str) throws IOException {
+		BufferedReader read = new BufferedReader(new StringReader(str));
+		StringBuilder write = new StringBuilder();
+		String l = read.readLine();
+		while (l != null) {
+			int i = l.indexOf(' ');
+			if (i == -1) {
+				write.append(l);
+			} else {
+				String remapped = REMAP.apply(l.substring(i+1));
+				if (remapped != null) {
+					write.append(l, 0, i).append(' ').append(remapped);
+				} else {
+					write.append(l);
+				}
+			}
+			l = read.readLine();
+			if (l != null) write.append('\n');
+		}
+		return write.toString();
+	}
+
+	private static String baselineRel(String str) throws IOException {
+		BufferedReader read = new BufferedReader(new StringReader(str));
+		StringBuilder write = new StringBuilder();
+		String k = read.readLine();
+		if (k != null) write.append(k).append('\n');
+		String l = k == null ? null : read.readLine();
+		while (l != null) {
+			String[] split = l.split("\t");
+			for (int x = 0; x < split.length; x++) {
+				int i = split[x].indexOf(' ');
+				if (i != -1) {
+					String remapped = REMAP.apply(split[x].substring(i+1));
+					if (remapped != null) {
+						split[x] = split[x].substring(0, i)+" "+remapped;
+					}
+				}
+			}
+			write.append(String.join("\t", split));
+			k = read.readLine();
+			if (k == null) break;
+			write.append('\n').append(k);
+			l = read.readLine();
+			if (l != null) write.append('\n');
+		}
+		return write.toString();
+	}
+
+}